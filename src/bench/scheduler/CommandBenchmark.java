@@ -0,0 +1,117 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.LocalStore;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Vaccine;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Commands run through real sessions against the local store, run with Storage=local and a scratch JournalFile
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+    private static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private static final AtomicInteger patients = new AtomicInteger();
+
+    // caregivers available per date
+    @Param({"10", "100"})
+    public int size;
+
+    // dates the availability is spread over
+    @Param({"30"})
+    public int dates;
+
+    private String run;
+    private String vaccine;
+    private final List<Date> days = new ArrayList<>();
+
+    // a patient logged in on a session of its own per thread
+    @State(Scope.Thread)
+    public static class Session {
+        private String patient;
+        private Scheduler scheduler;
+        private long i = 0;
+
+        @Setup
+        public void login(CommandBenchmark benchmark) {
+            patient = benchmark.run + "_p" + patients.getAndIncrement();
+            scheduler = new Scheduler(discard);
+            scheduler.execute("create_patient " + patient + " " + UtilBenchmark.PASSWORD);
+            scheduler.execute("login_patient " + patient + " " + UtilBenchmark.PASSWORD);
+        }
+
+        long next() {
+            return i++;
+        }
+    }
+
+    // seeds caregivers available on every date and enough doses for all of them
+    @Setup
+    public void seed() throws SQLException {
+        if (!LocalStore.isEnabled()) {
+            throw new IllegalStateException("Run the command benchmarks with Storage=local");
+        }
+        run = "b" + Long.toString(System.currentTimeMillis(), 36) + "_" + size;
+        vaccine = run + "_vaccine";
+        LocalDate firstDay = LocalDate.now().plusYears(50);
+        for (int day = 0; day < dates; day++) {
+            days.add(Date.valueOf(firstDay.plusDays(day)));
+        }
+        Scheduler admin = new Scheduler(discard);
+        for (int c = 0; c < size; c++) {
+            String username = run + "_cg" + c;
+            admin.execute("create_caregiver " + username + " " + UtilBenchmark.PASSWORD);
+            new Caregiver.CaregiverGetter(username, UtilBenchmark.PASSWORD).get().uploadAvailability(days);
+        }
+        new Vaccine.VaccineBuilder(vaccine, size * dates).build().saveToDB();
+        AvailabilityIndex.getInstance().reload();
+        VaccineCatalog.getInstance().reload();
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule(Session session) {
+        return session.scheduler.execute("search_caregiver_schedule " + days.get((int) (session.next() % dates)));
+    }
+
+    @Benchmark
+    public boolean loginPatient(Session session) {
+        return new Scheduler(discard).execute("login_patient " + session.patient + " " + UtilBenchmark.PASSWORD);
+    }
+
+    // A booking followed by its cancellation, which gives the caregiver the day back, so that the benchmark measures
+    // successful bookings however long it runs.
+    @Benchmark
+    public boolean reserveAndCancel(Session session) throws SQLException {
+        session.scheduler.execute("reserve " + days.get((int) (session.next() % dates)) + " " + vaccine);
+        List<Appointment> booked = AppointmentDao.getForPatient(session.patient, null, 0, 1);
+        return booked.isEmpty() || session.scheduler.execute("cancel " + booked.get(0).getId());
+    }
+}
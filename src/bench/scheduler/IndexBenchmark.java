@@ -0,0 +1,88 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scheduler.cache.AvailabilityIndex;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lookups and updates on the in-memory availability index, what search_caregiver_schedule reads and bookings update
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    // caregivers available per date
+    @Param({"10", "100"})
+    public int size;
+
+    // dates the availability is spread over
+    @Param({"30"})
+    public int dates;
+
+    private AvailabilityIndex index;
+    private long firstDay;
+
+    @State(Scope.Thread)
+    public static class Churn {
+        // a caregiver of its own per thread, so that threads do not undo each other's changes
+        private final String caregiver = "bench_churn_" + threads.getAndIncrement();
+        private long i = 0;
+
+        long next() {
+            return i++;
+        }
+    }
+
+    @Setup
+    public void fill() {
+        index = AvailabilityIndex.getInstance();
+        firstDay = LocalDate.now().toEpochDay();
+        for (int day = 0; day < dates; day++) {
+            for (int c = 0; c < size; c++) {
+                index.add(firstDay + day, "bench_caregiver_" + c);
+            }
+        }
+    }
+
+    @TearDown
+    public void clear() {
+        for (int day = 0; day < dates; day++) {
+            for (int c = 0; c < size; c++) {
+                index.remove(firstDay + day, "bench_caregiver_" + c);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getCaregivers(Churn churn, Blackhole blackhole) {
+        for (String caregiver : index.getCaregivers(firstDay + churn.next() % dates)) {
+            blackhole.consume(caregiver);
+        }
+    }
+
+    @Benchmark
+    public void addRemove(Churn churn) {
+        long day = firstDay + churn.next() % dates;
+        index.add(day, churn.caregiver);
+        index.remove(day, churn.caregiver);
+    }
+}
@@ -0,0 +1,64 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+// Building the model objects, which every command that reads a user or a vaccine does
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    // a running counter per thread, so that every object gets a name of its own
+    @State(Scope.Thread)
+    public static class Counter {
+        private long i = 0;
+
+        long next() {
+            return i++;
+        }
+    }
+
+    private byte[] salt;
+    private byte[] hash;
+
+    @Setup
+    public void setUp() {
+        salt = Util.generateSalt();
+        hash = Util.generateHash(UtilBenchmark.PASSWORD, salt);
+    }
+
+    @Benchmark
+    public Patient patientBuilder(Counter counter) {
+        return new Patient.PatientBuilder("patient" + counter.next(), salt, hash).build();
+    }
+
+    @Benchmark
+    public Caregiver caregiverBuilder(Counter counter) {
+        return new Caregiver.CaregiverBuilder("caregiver" + counter.next(), salt, hash).build();
+    }
+
+    @Benchmark
+    public Vaccine vaccineBuilder(Counter counter) throws SQLException {
+        long i = counter.next();
+        return new Vaccine.VaccineBuilder("vaccine" + i, (int) i).build();
+    }
+}
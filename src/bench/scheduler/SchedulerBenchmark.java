@@ -0,0 +1,30 @@
+package scheduler;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+// Runs the JMH benchmarks once for each thread count in bench.threads (default 1,4). Build with mvn -P bench package
+// and run java -jar target/benchmarks.jar with Storage=local and a scratch JournalFile.
+public class SchedulerBenchmark {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        int[] threadCounts = Arrays.stream(System.getProperty("bench.threads", "1,4").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        for (int threads : threadCounts) {
+            OptionsBuilder builder = new OptionsBuilder();
+            builder.parent(options).threads(threads);
+            if (options.getIncludes().isEmpty()) {
+                builder.include("scheduler\\..*Benchmark\\.");
+            }
+            new Runner(builder.build()).run();
+        }
+    }
+}
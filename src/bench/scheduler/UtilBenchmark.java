@@ -0,0 +1,59 @@
+package scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Password hashing, which login and account creation spend most of their CPU time on
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    static final String PASSWORD = "Bench#Pass1";
+
+    private byte[] salt;
+    private byte[] hash;
+    private byte[] padded;
+
+    @Setup
+    public void setUp() {
+        salt = Util.generateSalt();
+        hash = Util.generateHash(PASSWORD, salt);
+        padded = Arrays.copyOf(hash, hash.length + 8);
+    }
+
+    @Benchmark
+    public byte[] generateHash() {
+        return Util.generateHash(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] generateSalt() {
+        return Util.generateSalt();
+    }
+
+    @Benchmark
+    public byte[] trim() {
+        return Util.trim(padded);
+    }
+
+    @Benchmark
+    public boolean verifyHash() {
+        return Util.verifyHash(PASSWORD, salt, hash, Util.getHashIterations());
+    }
+}
@@ -2,6 +2,7 @@ CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
+    Iterations int NOT NULL DEFAULT 10,
     PRIMARY KEY (Username)
 );
 
@@ -11,6 +12,15 @@ CREATE TABLE Availabilities (
     PRIMARY KEY (Time, Username)
 );
 
+-- free 15 minute slots of a caregiver's day, 00:00-11:45 in the low 48 bits of SlotsAm, 12:00-23:45 in SlotsPm
+CREATE TABLE SlotAvailabilities (
+    Time date,
+    Username varchar(255) REFERENCES Caregivers,
+    SlotsAm bigint NOT NULL DEFAULT 0,
+    SlotsPm bigint NOT NULL DEFAULT 0,
+    PRIMARY KEY (Time, Username)
+);
+
 CREATE TABLE Vaccines (
     Name varchar(255),
     Doses int,
@@ -21,14 +31,33 @@ CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
+    Iterations int NOT NULL DEFAULT 10,
     PRIMARY KEY (Username)
 );
 
+-- blocks of doses taken out of Vaccines by a scheduler node, to be handed out without touching the Vaccines row
+CREATE TABLE DoseLeases (
+    ID int IDENTITY(1,1),
+    Node varchar(255) NOT NULL,
+    Vaccine varchar(255) REFERENCES Vaccines(Name),
+    Granted int NOT NULL,
+    Expires datetime2 NOT NULL,
+    PRIMARY KEY (ID)
+);
+
 CREATE TABLE Appointments (
     ID INT IDENTITY(1,1),
     Patient varchar(255) REFERENCES Patients(Username),
     Caregiver varchar(255) REFERENCES Caregivers(Username),
     Vaccine varchar(255) REFERENCES Vaccines(Name),
     Time date,
+    Slot smallint NULL,
+    Lease int NULL,
     PRIMARY KEY (ID)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (Caregiver, Time, ID) INCLUDE (Patient, Vaccine, Slot);
+
+CREATE INDEX IX_Appointments_Patient ON Appointments (Patient, Time, ID) INCLUDE (Caregiver, Vaccine, Slot);
+
+CREATE INDEX IX_Appointments_Lease ON Appointments (Lease) WHERE Lease IS NOT NULL;
\ No newline at end of file
@@ -0,0 +1,84 @@
+package scheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Runs scheduler commands from a file or stream back to back. Command output goes to stdout, the timings of the
+// commands go to stderr so they never mix with it.
+class BatchRunner {
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static class OperationStats {
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    private BatchRunner() {
+    }
+
+    // runs the commands in the file, or in stdin if the source is "-"
+    static void run(String source) throws IOException {
+        PrintStream buffered = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE), false);
+        Scheduler session = new Scheduler(buffered);
+
+        Map<String, OperationStats> stats = new TreeMap<>();
+        long commands = 0;
+        long start = System.nanoTime();
+        try (BufferedReader r = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(source))) {
+            String line;
+            long lineNumber = 0;
+            while ((line = r.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                // skip blank lines and comments
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String operation = line.split(" ")[0];
+                long commandStart = System.nanoTime();
+                boolean more = session.execute(line);
+                long elapsed = System.nanoTime() - commandStart;
+
+                commands++;
+                stats.computeIfAbsent(operation, op -> new OperationStats()).record(elapsed);
+                System.err.printf("[batch] line %d %s %.3f ms%n", lineNumber, operation, elapsed / 1e6);
+                if (!more) {
+                    break;
+                }
+            }
+        } finally {
+            buffered.flush();
+        }
+        printSummary(stats, commands, System.nanoTime() - start);
+    }
+
+    private static void printSummary(Map<String, OperationStats> stats, long commands, long elapsedNanos) {
+        double elapsedMillis = elapsedNanos / 1e6;
+        System.err.printf("[batch] %d command(s) in %.3f ms (%.1f commands/s)%n", commands, elapsedMillis,
+                elapsedMillis == 0 ? 0 : commands * 1000 / elapsedMillis);
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            OperationStats op = entry.getValue();
+            System.err.printf("[batch]   %-28s count=%d mean=%.3f ms max=%.3f ms total=%.3f ms%n", entry.getKey(),
+                    op.count, op.totalNanos / 1e6 / op.count, op.maxNanos / 1e6, op.totalNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package scheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Collects what one command prints and writes it to the session's stream when the command ends. Text by default;
+// with OutputFormat=json every command is answered with one JSON line of its messages and its rows as objects.
+class CommandOutput {
+
+    enum Format {
+        TEXT,
+        JSON
+    }
+
+    private final PrintStream target;
+    private final Format format;
+    // in JSON mode, the lines printed by the current command
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    private final PrintStream stream;
+    private final List<Map<String, Object>> rows = new ArrayList<>();
+
+    CommandOutput(PrintStream target, Format format) {
+        this.target = target;
+        this.format = format;
+        this.stream = format == Format.JSON ? new PrintStream(captured, false, StandardCharsets.UTF_8) : target;
+    }
+
+    static Format formatFromEnvironment() {
+        String name = System.getenv("OutputFormat");
+        if (name == null || name.isEmpty()) {
+            return Format.TEXT;
+        }
+        try {
+            return Format.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown OutputFormat " + name + ", using text");
+            return Format.TEXT;
+        }
+    }
+
+    // where commands print their messages
+    PrintStream getStream() {
+        return stream;
+    }
+
+    // A result row: printed as the text line in text mode, kept as an object made of the name and value pairs in
+    // JSON mode.
+    void row(String text, Object... fields) {
+        if (format == Format.TEXT) {
+            stream.println(text);
+            return;
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            row.put((String) fields[i], fields[i + 1]);
+        }
+        rows.add(row);
+    }
+
+    // writes out the command's answer in JSON mode, and gets ready for the next command
+    void end(String command, boolean ok) {
+        if (format == Format.TEXT) {
+            return;
+        }
+        stream.flush();
+        StringBuilder json = new StringBuilder(256 + captured.size());
+        json.append("{\"command\":");
+        appendJson(json, command);
+        json.append(",\"ok\":").append(ok).append(",\"messages\":[");
+        String text = captured.toString(StandardCharsets.UTF_8);
+        if (!text.isEmpty()) {
+            String[] lines = text.split("\r?\n");
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                appendJson(json, lines[i]);
+            }
+        }
+        json.append("],\"rows\":[");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendJson(json, rows.get(i));
+        }
+        json.append("]}");
+        target.println(json);
+        captured.reset();
+        rows.clear();
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendJson(json, entry.getKey().toString());
+                json.append(':');
+                appendJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else {
+            String s = value.toString();
+            json.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        json.append("\\\"");
+                        break;
+                    case '\\':
+                        json.append("\\\\");
+                        break;
+                    case '\n':
+                        json.append("\\n");
+                        break;
+                    case '\r':
+                        json.append("\\r");
+                        break;
+                    case '\t':
+                        json.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            json.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            json.append(c);
+                        }
+                }
+            }
+            json.append('"');
+        }
+    }
+}
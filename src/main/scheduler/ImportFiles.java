@@ -0,0 +1,63 @@
+package scheduler;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Decides who may run the commands that work on files, import and bulk_reserve: only the caregivers listed in
+// Admins, and only on files inside ImportDir (over the network, only when ImportDir is set).
+final class ImportFiles {
+
+    private static final Set<String> admins = parseAdmins(System.getenv("Admins"));
+    private static final Path configuredDirectory = parseDirectory(System.getenv("ImportDir"));
+
+    private ImportFiles() {
+    }
+
+    static boolean isAdmin(String caregiver) {
+        return caregiver != null && admins.contains(caregiver.toLowerCase(Locale.ROOT));
+    }
+
+    // the directory the session may use files in, or null if it may not use files at all
+    static Path getDirectory(boolean remote) {
+        if (configuredDirectory != null) {
+            return configuredDirectory;
+        }
+        return remote ? null : Path.of("").toAbsolutePath().normalize();
+    }
+
+    // Resolves the file name inside the directory of the session. Returns null if the session may not use files or
+    // the name points outside of the directory.
+    static Path resolve(String name, boolean remote) {
+        Path directory = getDirectory(remote);
+        if (directory == null) {
+            return null;
+        }
+        try {
+            Path path = directory.resolve(name).normalize();
+            return path.startsWith(directory) && !path.equals(directory) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private static Set<String> parseAdmins(String value) {
+        if (value == null) {
+            return Set.of();
+        }
+        return Stream.of(value.split(","))
+                .map(name -> name.trim().toLowerCase(Locale.ROOT))
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static Path parseDirectory(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        return Path.of(value.trim()).toAbsolutePath().normalize();
+    }
+}
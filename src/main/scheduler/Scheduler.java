@@ -1,27 +1,130 @@
 package scheduler;
 
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.SlotIndex;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.AsyncDao;
+import scheduler.dao.AvailabilityDao;
+import scheduler.dao.LocalStore;
+import scheduler.dao.SlotDao;
+import scheduler.dao.TableSnapshot;
+import scheduler.dao.UserDao;
 import scheduler.db.ConnectionManager;
+import scheduler.db.Resilience;
+import scheduler.db.UnitOfWork;
+import scheduler.metrics.CommandMetrics;
+import scheduler.metrics.CommandStats;
+import scheduler.metrics.RoundTrips;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.service.AssignmentStrategies;
+import scheduler.service.BulkImporter;
+import scheduler.service.BulkMatcher;
+import scheduler.service.CancellationService;
+import scheduler.service.DoseLeaseManager;
+import scheduler.service.ReservationEngine;
 import scheduler.util.Util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most 2one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // objects to keep track of the user logged-in in this session
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time in a session
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+
+    // where the results of this session's commands are written, out is where commands print their messages
+    private final CommandOutput output;
+    private final PrintStream out;
+    // true for sessions served over the network, which only get to use files in a configured directory
+    private final boolean remote;
+
+    private static final DoseLeaseManager doseLeases = DoseLeaseManager.fromEnvironment();
+    private static final ReservationEngine reservationEngine =
+            new ReservationEngine(AssignmentStrategies.fromEnvironment(), doseLeases);
+    private static final BulkMatcher bulkMatcher = new BulkMatcher();
+    private static final BulkImporter bulkImporter = new BulkImporter();
+    private static final CancellationService cancellationService = new CancellationService();
+
+    // longest range of dates a caregiver can upload availability for at once
+    private static final int MAX_UPLOAD_DAYS = 366;
+
+    // longest range search_range lists day by day
+    private static final int MAX_SEARCH_DAYS = 366;
+
+    // appointments shown per page by show_appointments, by default and at most
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    // out should be buffered, callers flush it once a command has run
+    Scheduler(PrintStream out) {
+        this(out, false);
+    }
+
+    Scheduler(PrintStream out, boolean remote) {
+        this.output = new CommandOutput(out, CommandOutput.formatFromEnvironment());
+        this.out = output.getStream();
+        this.remote = remote;
+    }
 
     public static void main(String[] args) {
+        // batch mode: run the commands of a file, or of stdin for "-", without prompts
+        if (args.length > 0 && args[0].equals("--batch")) {
+            if (args.length != 2) {
+                System.out.println("Usage: Scheduler --batch <file|->");
+                return;
+            }
+            warmUp();
+            try {
+                BatchRunner.run(args[1]);
+            } catch (IOException e) {
+                System.out.println("Failed to read commands from " + args[1]);
+                e.printStackTrace();
+            }
+            return;
+        }
+        // server mode: serve the same commands over TCP, one session per connection
+        if (args.length > 0 && args[0].equals("--server")) {
+            warmUp();
+            try {
+                SchedulerServer.fromEnvironment().run();
+            } catch (IOException e) {
+                System.out.println("Failed to start the server");
+                e.printStackTrace();
+            }
+            return;
+        }
+
         // printing greetings text
         System.out.println();
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
@@ -31,77 +134,249 @@ public class Scheduler {
         System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
         System.out.println("> login_caregiver <username> <password>");
         System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        System.out.println("> search_range <from> <to> [vaccine]");
+        System.out.println("> next_available <date> <vaccine>");
+        System.out.println("> reserve <date> <vaccine> [HH:MM]");  // TODO: implement reserve (Part 2)
+        System.out.println("> bulk_reserve <file>");
         System.out.println("> upload_availability <date>");
+        System.out.println("> upload_availability <start> <end> [weekdays]");
+        System.out.println("> upload_slots <date> <HH:MM> <HH:MM>");
         System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        System.out.println("> cancel --caregiver <username> --from <date> --to <date>");
         System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
+        System.out.println("> import <patients|caregivers|vaccines> <file> [errors-file]");
+        System.out.println("> show_appointments [--after <date>:<id>] [--limit <n>]");  // TODO: implement show_appointments (Part 2)
         System.out.println("> logout");  // TODO: implement logout (Part 2)
+        System.out.println("> stats");
         System.out.println("> quit");
         System.out.println();
 
-        // read input from user
+        warmUp();
+
+        // read input from user, the output of a command goes out in one write once it is done
+        PrintStream console = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        Scheduler session = new Scheduler(console);
+        // no prompts in front of the JSON lines
+        boolean prompt = CommandOutput.formatFromEnvironment() == CommandOutput.Format.TEXT;
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
-            System.out.print("> ");
+            if (prompt) {
+                console.print("> ");
+                console.flush();
+            }
             String response = "";
             try {
                 response = r.readLine();
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            // end of input, nothing more to read
+            if (response == null) {
+                return;
+            }
+            boolean more = session.execute(response);
+            console.flush();
+            if (!more) {
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    // runs one command line, returns false once the user quits
+    boolean execute(String response) {
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            out.println("Please try again!");
+            output.end("", true);
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("quit")) {
+            out.println("Bye!");
+            output.end(operation, true);
+            return false;
+        }
+        // every command runs inside a single unit of work: one connection and one transaction
+        long start = System.nanoTime();
+        RoundTrips.reset();
+        boolean known = true;
+        boolean error = true;
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            known = dispatch(operation, tokens);
+            error = unitOfWork.isRollbackOnly();
+            unitOfWork.commit();
+        } catch (SQLException e) {
+            error = true;
+            out.println("Error occurred when saving changes");
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // a bug in one command, its unit of work has been rolled back and the session goes on
+            error = true;
+            out.println("Please try again!");
+            e.printStackTrace();
+        } finally {
+            // unknown operations are grouped together to keep the number of tracked commands bounded
+            CommandMetrics.getInstance().record(known ? operation : "invalid", System.nanoTime() - start, error,
+                    RoundTrips.get());
+            output.end(operation, known && !error);
+        }
+        return true;
+    }
+
+    // Fills the caches, from the snapshot in SnapshotFile for the tables it is still current for and from the
+    // database for the rest. The caches are loaded at the same time, each over a connection of its own. A missing
+    // or stale snapshot is written afresh in the background.
+    private static void warmUp() {
+        String snapshotFile = System.getenv("SnapshotFile");
+        boolean snapshots = snapshotFile != null && !snapshotFile.isEmpty() && !LocalStore.isEnabled();
+        TableSnapshot snapshot = snapshots ? loadSnapshot(Path.of(snapshotFile)) : null;
+
+        AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+        CompletableFuture<Void> availabilities = AsyncDao.run(() -> {
+            try {
+                if (snapshot != null && snapshot.isCurrent(TableSnapshot.AVAILABILITIES)) {
+                    availabilityIndex.load(snapshot);
+                } else {
+                    availabilityIndex.reload();
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to load availabilities, falling back to the database: " + e);
+            }
+        });
+
+        SlotIndex slotIndex = SlotIndex.getInstance();
+        CompletableFuture<Void> slots = AsyncDao.run(() -> {
+            try {
+                if (snapshot != null && snapshot.isCurrent(TableSnapshot.SLOT_AVAILABILITIES)) {
+                    slotIndex.load(snapshot);
+                } else {
+                    slotIndex.reload();
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to load slots, falling back to the database: " + e);
+            }
+        });
+
+        CompletableFuture<Void> loads = AsyncDao.run(() -> {
+            try {
+                if (snapshot != null && snapshot.isCurrent(TableSnapshot.APPOINTMENTS)) {
+                    CaregiverLoad.getInstance().load(snapshot);
+                } else {
+                    CaregiverLoad.getInstance().reload();
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to load caregiver appointment counts, starting from zero: " + e);
+            }
+        });
+
+        VaccineCatalog vaccineCatalog = VaccineCatalog.getInstance();
+        vaccineCatalog.setMaxStalenessMillis(Util.getLongEnv("VaccineCacheMaxStalenessMs", 30 * 1000));
+        CompletableFuture<Void> vaccines = AsyncDao.run(() -> {
+            try {
+                if (snapshot != null && snapshot.isCurrent(TableSnapshot.VACCINES)) {
+                    vaccineCatalog.load(snapshot.getVaccines());
+                } else {
+                    vaccineCatalog.reload();
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to load vaccines, they will be loaded on first use: " + e);
+            }
+        });
+
+        CompletableFuture.allOf(availabilities, slots, loads, vaccines).join();
+        availabilityIndex.startReconciler(Util.getLongEnv("AvailabilityReconcileMs", 60 * 1000));
+        slotIndex.startReconciler(Util.getLongEnv("AvailabilityReconcileMs", 60 * 1000));
+        doseLeases.start();
+
+        if (snapshots && (snapshot == null || !snapshot.isCurrent())) {
+            writeSnapshot(Path.of(snapshotFile));
+        }
+    }
+
+    // returns null if there is no usable snapshot in the file
+    private static TableSnapshot loadSnapshot(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            return TableSnapshot.load(path);
+        } catch (IOException | SQLException | RuntimeException e) {
+            System.err.println("Failed to load the snapshot in " + path + ", loading from the database: " + e);
+            return null;
+        }
+    }
+
+    private static void writeSnapshot(Path path) {
+        Thread writer = new Thread(() -> {
+            try {
+                TableSnapshot.write(path);
+            } catch (IOException | SQLException | RuntimeException e) {
+                System.err.println("Failed to write the snapshot to " + path + ": " + e);
+            }
+        }, "snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // runs the command, returns false if there is no such operation
+    private boolean dispatch(String operation, String[] tokens) {
+        if (operation.equals("create_patient")) {
+            createPatient(tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(tokens);
+        } else if (operation.equals("search_range")) {
+            searchRange(tokens);
+        } else if (operation.equals("next_available")) {
+            nextAvailable(tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(tokens);
+        } else if (operation.equals("bulk_reserve")) {
+            bulkReserve(tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(tokens);
+        } else if (operation.equals("upload_slots")) {
+            uploadSlots(tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(tokens);
+        } else if (operation.equals("import")) {
+            importFile(tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(tokens);
+        } else if (operation.equals("logout")) {
+            logout(tokens);
+        } else if (operation.equals("stats")) {
+            stats(tokens);
+        } else {
+            out.println("Invalid operation name!");
+            return false;
+        }
+        return true;
+    }
+
+    private void createPatient(String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again!");
+            out.println("Username taken, try again!");
             return;
         }
 
@@ -111,7 +386,7 @@ public class Scheduler {
                 .find();
 
         if(!isStrong) {
-            System.out.println("Password must contain at least 8 characters, an uppercase letter, a lowercase letter, " +
+            out.println("Password must contain at least 8 characters, an uppercase letter, a lowercase letter, " +
                     "a number, and a special character from (!, @, #, ?)");
             return;
         }
@@ -123,25 +398,26 @@ public class Scheduler {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Create patient failed.");
+            UnitOfWork.setRollbackOnly();
+            out.println("Create patient failed.");
             e.printStackTrace();
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private void createCaregiver(String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            out.println("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+            out.println("Username taken, try again!");
             return;
         }
 
@@ -151,7 +427,7 @@ public class Scheduler {
                 .find();
 
         if(!isStrong) {
-            System.out.println("Password must contain at least 8 characters, an uppercase letter, a lowercase letter, " +
+            out.println("Password must contain at least 8 characters, an uppercase letter, a lowercase letter, " +
                     "a number, and a special character from (!, @, #, ?)");
             return;
         }
@@ -163,63 +439,46 @@ public class Scheduler {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            UnitOfWork.setRollbackOnly();
+            out.println("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private boolean usernameExistsPatient(String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UserDao.PATIENTS.exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private boolean usernameExistsCaregiver(String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return UserDao.CAREGIVERS.exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private void loginPatient(String[] tokens) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -229,28 +488,29 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            UnitOfWork.setRollbackOnly();
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
+            out.println("Logged in as: " + username);
             currentPatient = patient;
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private void loginCaregiver(String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
         if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+            out.println("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -260,26 +520,27 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            UnitOfWork.setRollbackOnly();
+            out.println("Login failed.");
             e.printStackTrace();
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            out.println("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
+            out.println("Logged in as: " + username);
             currentCaregiver = caregiver;
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
+    private void searchCaregiverSchedule(String[] tokens) {
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please log in first.");
+            out.println("Please log in first.");
             return;
         }
 
         if (tokens.length != 2) {
-            System.out.println("Search failed.");
+            out.println("Search failed.");
             return;
         }
 
@@ -289,55 +550,173 @@ public class Scheduler {
         try {
             d = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again! Enter a valid date in the format YYYY-MM-DD!");
+            out.println("Please try again! Enter a valid date in the format YYYY-MM-DD!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        try {
+            // whatever is not cached is read from the database, all at once
+            AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+            SlotIndex slotIndex = SlotIndex.getInstance();
+            VaccineCatalog vaccineCatalog = VaccineCatalog.getInstance();
+            long epochDay = AvailabilityIndex.toEpochDay(d);
+            Date day = d;
+            CompletableFuture<? extends Collection<String>> caregivers = availabilityIndex.isWarm()
+                    ? CompletableFuture.completedFuture(availabilityIndex.getCaregivers(epochDay))
+                    : AsyncDao.supply(() -> AvailabilityDao.getCaregivers(day));
+            CompletableFuture<? extends Map<String, long[]>> slots = slotIndex.isWarm()
+                    ? CompletableFuture.completedFuture(slotIndex.getSlots(epochDay))
+                    : AsyncDao.supply(() -> SlotDao.getSlots(day));
+            VaccineCatalog.Snapshot cached = vaccineCatalog.peek();
+            CompletableFuture<VaccineCatalog.Snapshot> vaccines = cached != null
+                    ? CompletableFuture.completedFuture(cached)
+                    : AsyncDao.supply(vaccineCatalog::getSnapshot);
+
+            for (String caregiver : AsyncDao.join(caregivers)) {
+                output.row(caregiver, "caregiver", caregiver);
+            }
+
+            // caregivers taking appointments by the slot, with their free time ranges
+            for (Map.Entry<String, long[]> caregiver : AsyncDao.join(slots).entrySet()) {
+                String free = SlotIndex.describe(caregiver.getValue());
+                output.row(caregiver.getKey() + " " + free, "caregiver", caregiver.getKey(), "slots", free);
+            }
 
-        String selectCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
-        String selectVaccines = "SELECT Name, Doses FROM Vaccines ORDER BY Name";
+            VaccineCatalog.Snapshot catalog = AsyncDao.join(vaccines);
+            List<String> lines = catalog.getLines();
+            int line = 0;
+            for (Map.Entry<String, Integer> vaccine : catalog.getDoses().entrySet()) {
+                output.row(lines.get(line++), "vaccine", vaccine.getKey(), "doses", vaccine.getValue());
+            }
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when checking availabilities");
+            e.printStackTrace();
+        }
+    }
 
+    private void searchRange(String[] tokens) {
+        // search_range <from> <to> [vaccine]
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please log in first.");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.println("Search failed.");
+            return;
+        }
+        long from;
+        long to;
         try {
-            PreparedStatement care_statement = con.prepareStatement(selectCaregivers);
-            care_statement.setDate(1, d);
-            ResultSet caregiverList = care_statement.executeQuery();
+            from = AvailabilityIndex.toEpochDay(Date.valueOf(tokens[1]));
+            to = AvailabilityIndex.toEpochDay(Date.valueOf(tokens[2]));
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again! Enter valid dates in the format YYYY-MM-DD!");
+            return;
+        }
+        if (to < from || to - from >= MAX_SEARCH_DAYS) {
+            out.println("Please enter a range of at most " + MAX_SEARCH_DAYS + " days, start date first!");
+            return;
+        }
+        AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+        SlotIndex slotIndex = SlotIndex.getInstance();
+        if (!availabilityIndex.isWarm() || !slotIndex.isWarm()) {
+            out.println("Availabilities are still loading, please try again.");
+            return;
+        }
+
+        // jump from one day with openings to the next, never visiting the days in between
+        for (long day = nextOpenDay(from); day >= 0 && day <= to; day = nextOpenDay(day + 1)) {
+            int caregivers = availabilityIndex.count(day, day);
+            int slots = slotIndex.count(day, day);
+            output.row(LocalDate.ofEpochDay(day) + " " + caregivers + " caregiver(s), " + slots + " slot(s)",
+                    "date", LocalDate.ofEpochDay(day), "caregivers", caregivers, "slots", slots);
+        }
+        out.println("Total " + availabilityIndex.count(from, to) + " caregiver(s), " + slotIndex.count(from, to)
+                + " slot(s)");
 
-            while (caregiverList.next()) {
-                System.out.println(caregiverList.getString("Username"));
+        if (tokens.length == 4) {
+            try {
+                int doses = VaccineCatalog.getInstance().getSnapshot().getDoses(tokens[3]);
+                if (doses <= 0) {
+                    out.println("Not enough available doses!");
+                } else {
+                    out.println(tokens[3] + " " + doses);
+                }
+            } catch (SQLException e) {
+                UnitOfWork.setRollbackOnly();
+                out.println("Error occurred when checking doses");
+                e.printStackTrace();
             }
+        }
+    }
 
-            PreparedStatement vac_statement = con.prepareStatement(selectVaccines);
-            ResultSet vaccineList = vac_statement.executeQuery();
+    private void nextAvailable(String[] tokens) {
+        // next_available <date> <vaccine>
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please log in first.");
+            return;
+        }
+        if (tokens.length != 3) {
+            out.println("Search failed.");
+            return;
+        }
+        long from;
+        try {
+            from = AvailabilityIndex.toEpochDay(Date.valueOf(tokens[1]));
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again! Enter a valid date in the format YYYY-MM-DD!");
+            return;
+        }
+        if (!AvailabilityIndex.getInstance().isWarm() || !SlotIndex.getInstance().isWarm()) {
+            out.println("Availabilities are still loading, please try again.");
+            return;
+        }
 
-            while (vaccineList.next()) {
-                String vaccine = vaccineList.getString("Name");
-                int doses = vaccineList.getInt("Doses");
-                System.out.println(vaccine + " " + doses);
+        try {
+            if (VaccineCatalog.getInstance().getSnapshot().getDoses(tokens[2]) <= 0) {
+                out.println("Not enough available doses!");
+                return;
             }
-
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking availabilities");
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when checking doses");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
+            return;
+        }
+        long day = nextOpenDay(from);
+        if (day < 0) {
+            out.println("No caregiver is available!");
+            return;
+        }
+        out.println("Next available date: " + LocalDate.ofEpochDay(day) + " ("
+                + AvailabilityIndex.getInstance().count(day, day) + " caregiver(s), "
+                + SlotIndex.getInstance().count(day, day) + " slot(s))");
+    }
+
+    // the first day on or after the given one with a caregiver or a slot available, or -1 if there is none
+    private static long nextOpenDay(long fromEpochDay) {
+        long day = AvailabilityIndex.getInstance().nextDay(fromEpochDay);
+        long slotDay = SlotIndex.getInstance().nextDay(fromEpochDay);
+        if (day < 0 || (slotDay >= 0 && slotDay < day)) {
+            return slotDay;
         }
+        return day;
     }
 
-    private static void reserve(String[] tokens) {
+    private void reserve(String[] tokens) {
         if(currentCaregiver != null) {
-            System.out.println("Please login as a patient.");
+            out.println("Please login as a patient.");
             return;
         }
 
         if (currentPatient == null) {
-            System.out.println("Please login first.");
+            out.println("Please login first.");
             return;
         }
 
-        if (tokens.length != 3) {
-            System.out.println("Please try again.");
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.println("Please try again.");
             return;
         }
 
@@ -348,129 +727,495 @@ public class Scheduler {
         try {
             d = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again! Enter a valid date in the format YYYY-MM-DD!");
+            out.println("Please try again! Enter a valid date in the format YYYY-MM-DD!");
             return;
         }
+        // reserve <date> <vaccine> <HH:MM> books a slot of the day instead of the whole day
+        int slot = -1;
+        if (tokens.length == 4) {
+            slot = parseSlot(tokens[3]);
+            if (slot < 0) {
+                out.println("Please try again! Enter a time in the format HH:MM, on a "
+                        + SlotIndex.SLOT_MINUTES + " minute boundary!");
+                return;
+            }
+        }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String checkCaregivers = "SELECT TOP 1 Username FROM Availabilities WHERE Time = ? ORDER BY Username;";
-        String checkVaccines = "SELECT Doses FROM Vaccines WHERE Name = ?";
-        String addAppointment = "INSERT INTO Appointments (Patient, Caregiver, Vaccine, Time) VALUES (?, ?, ?, ?)";
-        String deleteAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+        // if the caches already know the reservation cannot succeed, there is no need to ask the database
+        AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+        SlotIndex slotIndex = SlotIndex.getInstance();
+        VaccineCatalog.Snapshot catalog = VaccineCatalog.getInstance().peek();
+        long epochDay = AvailabilityIndex.toEpochDay(d);
+        // without a time, a caregiver with a free slot on the day will do too
+        boolean noCaregiver = slot < 0
+                ? availabilityIndex.isWarm() && availabilityIndex.getCaregivers(epochDay).isEmpty()
+                        && slotIndex.isWarm() && slotIndex.getSlots(epochDay).isEmpty()
+                : slotIndex.isWarm() && slotIndex.getCaregivers(epochDay, slot).isEmpty();
+        boolean noDoses = catalog != null && catalog.getDoses(vaccine) + doseLeases.getRemaining(vaccine) <= 0;
+        if (noCaregiver || noDoses) {
+            if (noCaregiver) {
+                out.println("No caregiver is available!");
+            }
+            if (noDoses) {
+                out.println("Not enough available doses!");
+            }
+            return;
+        }
 
         try {
-            PreparedStatement getCaregiverStatement = con.prepareStatement(checkCaregivers);
-            getCaregiverStatement.setDate(1, d);
-            ResultSet caregiverList = getCaregiverStatement.executeQuery();
+            ReservationEngine.Result result = slot < 0
+                    ? reservationEngine.reserveAny(currentPatient.getUsername(), d, vaccine)
+                    : reservationEngine.reserveSlot(currentPatient.getUsername(), d, slot, vaccine);
+            switch (result.getStatus()) {
+                case BOOKED:
+                    out.println("Appointment ID " + result.getAppointmentId() + ", Caregiver username "
+                            + result.getCaregiver()
+                            + (result.getSlot() < 0 ? "" : ", Time " + SlotIndex.toTime(result.getSlot())));
+                    break;
+                case NO_CAREGIVER:
+                    out.println("No caregiver is available!");
+                    break;
+                case NO_DOSES:
+                    out.println("Not enough available doses!");
+                    break;
+                case NO_CAREGIVER_AND_NO_DOSES:
+                    out.println("No caregiver is available!");
+                    out.println("Not enough available doses!");
+                    break;
+                default:
+                    out.println("Please try again.");
+            }
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Please try again.");
+            e.printStackTrace();
+        }
+    }
 
-            PreparedStatement checkVaccinesStatement = con.prepareStatement(checkVaccines);
-            checkVaccinesStatement.setString(1, vaccine);
-            ResultSet vaccineList = checkVaccinesStatement.executeQuery();
+    private void bulkReserve(String[] tokens) {
+        // bulk_reserve <file>
+        // every line of the file is a request: <patient>,<vaccine>,<date>[;<date>...] with the dates best first
+        if (!checkFileAccess()) {
+            return;
+        }
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        Path file = resolveFile(tokens[1]);
+        if (file == null) {
+            return;
+        }
 
-            String caregiver = "";
-            while (caregiverList.next()) {
-                caregiver = caregiverList.getString("Username");
+        List<BulkMatcher.Request> requests = new ArrayList<>();
+        List<Long> lineNumbers = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = r.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                // skip blank lines and comments
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3 || fields[0].trim().isEmpty() || fields[1].trim().isEmpty()) {
+                    out.println("Line " + lineNumber + ": expected <patient>,<vaccine>,<date>[;<date>...]");
+                    return;
+                }
+                List<Date> dates = new ArrayList<>();
+                for (String date : fields[2].split(";")) {
+                    try {
+                        dates.add(Date.valueOf(date.trim()));
+                    } catch (IllegalArgumentException e) {
+                        out.println("Line " + lineNumber + ": please enter valid dates in the format YYYY-MM-DD!");
+                        return;
+                    }
+                }
+                requests.add(new BulkMatcher.Request(fields[0].trim(), fields[1].trim(), dates));
+                lineNumbers.add(lineNumber);
             }
+        } catch (IOException e) {
+            out.println("Could not read " + tokens[1] + ": " + e.getMessage());
+            return;
+        }
 
-            int doses = 0;
-            while (vaccineList.next()) {
-                doses = vaccineList.getInt("Doses");
+        try {
+            BulkMatcher.Result result = bulkMatcher.match(requests);
+            out.println("Booked " + result.getBooked().size() + " of " + requests.size() + " request(s).");
+            for (BulkMatcher.Unplaced unplaced : result.getUnplaced()) {
+                BulkMatcher.Request request = requests.get(unplaced.getIndex());
+                out.println("Line " + lineNumbers.get(unplaced.getIndex()) + " not placed (" + request.getPatient()
+                        + " " + request.getVaccine() + "): " + unplaced.getReason());
             }
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Please try again.");
+            e.printStackTrace();
+        }
+    }
 
-            if (caregiver.isEmpty()) {
-                System.out.println("No caregiver is available!");
-            }
-            if (doses == 0) {
-                System.out.println("Not enough available doses!");
+    private void uploadAvailability(String[] tokens) {
+        // upload_availability <date>
+        // upload_availability <start> <end> [weekdays]
+        // check 1: check if the current logged-in user is a caregiver
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be 2 for a single date, or 3 to 4 for a range of dates
+        if (tokens.length < 2 || tokens.length > 4) {
+            out.println("Please try again!");
+            return;
+        }
+        if (tokens.length == 2) {
+            String date = tokens[1];
+            try {
+                Date d = Date.valueOf(date);
+                currentCaregiver.uploadAvailability(d);
+                out.println("Availability uploaded!");
+            } catch (IllegalArgumentException e) {
+                out.println("Please enter a valid date!");
+            } catch (SQLException e) {
+                UnitOfWork.setRollbackOnly();
+                out.println("Error occurred when uploading availability");
+                e.printStackTrace();
             }
-            if (caregiver.isEmpty() || doses == 0) {
+            return;
+        }
+
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+            return;
+        }
+        // check 3: the range has to be in order and at most a year long
+        if (end.isBefore(start) || ChronoUnit.DAYS.between(start, end) >= MAX_UPLOAD_DAYS) {
+            out.println("Please enter a range of at most " + MAX_UPLOAD_DAYS + " days, start date first!");
+            return;
+        }
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            weekdays = parseWeekdays(tokens[3]);
+            if (weekdays == null) {
+                out.println("Please enter weekdays as a comma separated list, e.g. MON,WED,FRI");
                 return;
             }
+        }
 
-            Vaccine currVaccine = new Vaccine.VaccineBuilder(vaccine, doses).build();
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                dates.add(Date.valueOf(day));
+            }
+        }
+        try {
+            int added = currentCaregiver.uploadAvailability(dates);
+            out.println("Availability uploaded for " + added + " day(s), "
+                    + (dates.size() - added) + " already uploaded.");
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when uploading availability");
+            e.printStackTrace();
+        }
+    }
 
-            // Insert new appointment into table
-            PreparedStatement addAppointmentStatement = con.prepareStatement(addAppointment, Statement.RETURN_GENERATED_KEYS);
-            addAppointmentStatement.setString(1, currentPatient.getUsername());
-            addAppointmentStatement.setString(2, caregiver);
-            addAppointmentStatement.setString(3, currVaccine.getVaccineName());
-            addAppointmentStatement.setDate(4, d);
+    private void uploadSlots(String[] tokens) {
+        // upload_slots <date> <from HH:MM> <to HH:MM>
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 4) {
+            out.println("Please try again!");
+            return;
+        }
+        Date d;
+        try {
+            d = Date.valueOf(tokens[1]);
+        } catch (IllegalArgumentException e) {
+            out.println("Please enter a valid date!");
+            return;
+        }
+        int from = parseSlot(tokens[2]);
+        // the end of the day can be given as 24:00
+        int to = tokens[3].equals("24:00") ? SlotIndex.SLOTS_PER_DAY : parseSlot(tokens[3]);
+        if (from < 0 || to < 0) {
+            out.println("Please enter times in the format HH:MM, on a " + SlotIndex.SLOT_MINUTES + " minute boundary!");
+            return;
+        }
+        if (to <= from) {
+            out.println("Please enter the start time first!");
+            return;
+        }
+        try {
+            currentCaregiver.uploadSlots(d, from, to);
+            out.println("Slots uploaded for " + (to - from) + " slot(s) of " + SlotIndex.SLOT_MINUTES + " minutes!");
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when uploading slots");
+            e.printStackTrace();
+        }
+    }
 
-            // Print appointment to output
-            addAppointmentStatement.executeUpdate();
-            ResultSet addedAppointment = addAppointmentStatement.getGeneratedKeys();
-            if (addedAppointment.next()) {
-                int newId = addedAppointment.getInt(1);
-                System.out.println("Appointment ID " + newId + ", Caregiver username " + caregiver);
-            }
+    // the slot starting at a time such as "09:15", or -1 if it is not a valid time on a slot boundary
+    private static int parseSlot(String time) {
+        try {
+            return SlotIndex.toSlot(LocalTime.parse(time));
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
 
-            // Update caregiver availability
-            PreparedStatement deleteAvailabilityStmt = con.prepareStatement(deleteAvailability);
-            deleteAvailabilityStmt.setDate(1, d);
-            deleteAvailabilityStmt.setString(2, caregiver);
-            deleteAvailabilityStmt.executeUpdate();
+    // parses e.g. "MON,WED,FRI" or "monday,friday", returns null if any day cannot be recognized
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            String prefix = name.trim().toUpperCase();
+            if (prefix.length() < 3) {
+                return null;
+            }
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (day.name().startsWith(prefix)) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            weekdays.add(match);
+        }
+        return weekdays;
+    }
 
-            // Update vaccine availability
-            currVaccine.decreaseAvailableDoses(1);
+    private void cancel(String[] tokens) {
+        // cancel <appointment_id>
+        // cancel --caregiver <username> --from <date> --to <date>
+        if (currentCaregiver == null && currentPatient == null) {
+            out.println("Please login first!");
+            return;
+        }
+        if (tokens.length > 2) {
+            cancelAll(tokens);
+            return;
+        }
+        if (tokens.length != 2) {
+            out.println("Please try again!");
+            return;
+        }
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            out.println("Please enter a valid appointment ID!");
+            return;
+        }
 
+        try {
+            Appointment cancelled = currentPatient != null
+                    ? cancellationService.cancel(appointmentId, currentPatient.getUsername(), null)
+                    : cancellationService.cancel(appointmentId, null, currentCaregiver.getUsername());
+            if (cancelled == null) {
+                out.println("No appointment with ID " + appointmentId + " found!");
+            } else {
+                out.println("Appointment ID " + appointmentId + " cancelled!");
+            }
         } catch (SQLException e) {
-            System.out.println("Please try again.");
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when cancelling appointment");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
+    private void cancelAll(String[] tokens) {
+        // cancel --caregiver <username> --from <date> --to <date>
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        String caregiver = null;
+        Date from = null;
+        Date to = null;
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                if (i + 1 >= tokens.length) {
+                    throw new IllegalArgumentException();
+                } else if (tokens[i].equals("--caregiver")) {
+                    caregiver = tokens[i + 1];
+                } else if (tokens[i].equals("--from")) {
+                    from = Date.valueOf(tokens[i + 1]);
+                } else if (tokens[i].equals("--to")) {
+                    to = Date.valueOf(tokens[i + 1]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            caregiver = null;
+        }
+        if (caregiver == null || from == null || to == null) {
+            out.println("Please try again! Usage: cancel --caregiver <username> --from <date> --to <date>");
             return;
         }
-        String date = tokens[1];
+        // caregivers can only withdraw their own schedule
+        if (!caregiver.equals(currentCaregiver.getUsername())) {
+            out.println("You can only cancel your own appointments!");
+            return;
+        }
+        if (to.before(from)) {
+            out.println("Please enter the start date first!");
+            return;
+        }
+
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            CancellationService.RangeResult result = cancellationService.cancelAll(caregiver, from, to);
+            out.println("Cancelled " + result.getCancelled().size() + " appointment(s), withdrew "
+                    + result.getWithdrawn() + " day(s) of availability.");
+            for (Appointment appointment : result.getCancelled()) {
+                out.println(appointment.getId() + " " + appointment.getVaccine() + " " + appointment.getTime()
+                        + " " + appointment.getPatient());
+            }
+        } catch (SQLException e) {
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when cancelling appointments");
+            e.printStackTrace();
+        }
+    }
+
+    private void importFile(String[] tokens) {
+        // import <patients|caregivers|vaccines> <file> [errors-file]
+        // every line of the file is <username>,<password> for users or <vaccine>,<doses> for vaccines
+        if (!checkFileAccess()) {
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            out.println("Please try again!");
+            return;
+        }
+        String kind = tokens[1];
+        if (!kind.equals("patients") && !kind.equals("caregivers") && !kind.equals("vaccines")) {
+            out.println("Please import patients, caregivers or vaccines!");
+            return;
+        }
+        String errorsName = tokens.length == 4 ? tokens[3] : tokens[2] + ".errors";
+        Path file = resolveFile(tokens[2]);
+        if (file == null) {
+            return;
+        }
+        Path errorsFile = resolveFile(errorsName);
+        if (errorsFile == null) {
+            return;
+        }
+
+        List<BulkImporter.Line> lines = new ArrayList<>();
+        try (BufferedReader r = Files.newBufferedReader(file)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = r.readLine()) != null) {
+                lineNumber++;
+                // skip blank lines and comments
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                lines.add(new BulkImporter.Line(lineNumber, line));
+            }
+        } catch (IOException e) {
+            out.println("Could not read " + tokens[2] + ": " + e.getMessage());
+            return;
+        }
+
+        BulkImporter.Result result;
+        try {
+            if (kind.equals("vaccines")) {
+                result = bulkImporter.importVaccines(lines);
+            } else {
+                result = bulkImporter.importUsers(kind.equals("patients") ? UserDao.PATIENTS : UserDao.CAREGIVERS,
+                        lines);
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            UnitOfWork.setRollbackOnly();
+            out.println("Please try again.");
             e.printStackTrace();
+            return;
+        }
+        out.println("Imported " + result.getImported() + " of " + lines.size() + " line(s).");
+        if (result.getRejected().isEmpty()) {
+            return;
+        }
+        // the rejected lines as they were, each after a comment with the reason, so the file can be fixed and
+        // imported again
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(errorsFile))) {
+            for (BulkImporter.Rejected rejected : result.getRejected()) {
+                w.println("# line " + rejected.getLine().getNumber() + ": " + rejected.getReason());
+                w.println(rejected.getLine().getText());
+            }
+            out.println(result.getRejected().size() + " line(s) rejected, see " + errorsName);
+        } catch (IOException e) {
+            out.println(result.getRejected().size() + " line(s) rejected, could not write " + errorsName + ": "
+                    + e.getMessage());
+        }
+    }
+
+    // the commands that work on files are for admins only, see ImportFiles
+    private boolean checkFileAccess() {
+        if (currentCaregiver == null) {
+            out.println("Please login as a caregiver first!");
+            return false;
+        }
+        if (!ImportFiles.isAdmin(currentCaregiver.getUsername())) {
+            out.println("Only admins can work with files!");
+            return false;
         }
+        if (ImportFiles.getDirectory(remote) == null) {
+            out.println("Working with files is not enabled on this server!");
+            return false;
+        }
+        return true;
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
+    private Path resolveFile(String name) {
+        Path path = ImportFiles.resolve(name, remote);
+        if (path == null) {
+            out.println("Please use a file inside the import directory: " + name);
+        }
+        return path;
     }
 
-    private static void addDoses(String[] tokens) {
+    private void addDoses(String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
         if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+            out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            doses = 0;
+        }
+        if (doses <= 0) {
+            out.println("Please enter a positive number of doses!");
+            return;
+        }
         Vaccine vaccine = null;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            UnitOfWork.setRollbackOnly();
+            out.println("Error occurred when adding doses");
             e.printStackTrace();
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
@@ -480,7 +1225,8 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                UnitOfWork.setRollbackOnly();
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         } else {
@@ -488,83 +1234,122 @@ public class Scheduler {
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                UnitOfWork.setRollbackOnly();
+                out.println("Error occurred when adding doses");
                 e.printStackTrace();
             }
         }
-        System.out.println("Doses updated!");
+        out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
+    private void showAppointments(String[] tokens) {
+        // show_appointments [--after <date>:<id>] [--limit <n>]
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+            out.println("Please login first");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String checkCaregiverRsv = "SELECT ID, Vaccine, Time, Patient FROM Appointments WHERE Caregiver = ?";
-        String checkPatientRsv = "SELECT ID, Vaccine, Time, Caregiver FROM Appointments WHERE Patient = ?";
-
+        Date afterTime = null;
+        int afterId = 0;
+        int limit = DEFAULT_PAGE_SIZE;
         try {
-            if (currentCaregiver != null) {
-                PreparedStatement caregiverRsvStatement = con.prepareStatement(checkCaregiverRsv);
-                caregiverRsvStatement.setString(1, currentCaregiver.getUsername());
-                ResultSet caregiverRsvList = caregiverRsvStatement.executeQuery();
-
-                if (!caregiverRsvList.isBeforeFirst()) {
-                    System.out.println("No appointments scheduled!");
-                } else {
-                    while (caregiverRsvList.next()) {
-                        int ID = caregiverRsvList.getInt("ID");
-                        String vaccine = caregiverRsvList.getString("Vaccine");
-                        Date time = caregiverRsvList.getDate("Time");
-                        String patient = caregiverRsvList.getString("Patient");
-
-                        System.out.println(ID + " " + vaccine + " " + time + " " + patient);
+            for (int i = 1; i < tokens.length; i += 2) {
+                if (i + 1 >= tokens.length) {
+                    throw new IllegalArgumentException();
+                } else if (tokens[i].equals("--after")) {
+                    // the date and ID of the last appointment shown, as printed with the previous page
+                    int colon = tokens[i + 1].lastIndexOf(':');
+                    if (colon < 0) {
+                        throw new IllegalArgumentException();
                     }
-                }
-            } else {
-                PreparedStatement patientRsvStatement = con.prepareStatement(checkPatientRsv);
-                patientRsvStatement.setString(1, currentPatient.getUsername());
-                ResultSet patientRsvList = patientRsvStatement.executeQuery();
-
-                if (!patientRsvList.isBeforeFirst()) {
-                    System.out.println("No appointments scheduled!");
+                    afterTime = Date.valueOf(tokens[i + 1].substring(0, colon));
+                    afterId = Integer.parseInt(tokens[i + 1].substring(colon + 1));
+                } else if (tokens[i].equals("--limit")) {
+                    limit = Integer.parseInt(tokens[i + 1]);
                 } else {
-                    while (patientRsvList.next()) {
-                        int ID = patientRsvList.getInt("ID");
-                        String vaccine = patientRsvList.getString("Vaccine");
-                        Date time = patientRsvList.getDate("Time");
-                        String caregiver = patientRsvList.getString("Caregiver");
-
-                        System.out.println(ID + " " + vaccine + " " + time + " " + caregiver);
-                    }
+                    throw new IllegalArgumentException();
                 }
             }
+        } catch (IllegalArgumentException e) {
+            out.println("Please try again! Usage: show_appointments [--after <date>:<id>] [--limit <n>]");
+            return;
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            out.println("Please enter a limit between 1 and " + MAX_PAGE_SIZE + "!");
+            return;
+        }
+
+        try {
+            // fetch one more than asked for to know whether there is a next page
+            List<Appointment> appointments;
+            if (currentCaregiver != null) {
+                appointments = AppointmentDao.getForCaregiver(currentCaregiver.getUsername(), afterTime, afterId,
+                        limit + 1);
+            } else {
+                appointments = AppointmentDao.getForPatient(currentPatient.getUsername(), afterTime, afterId,
+                        limit + 1);
+            }
+            if (appointments.isEmpty()) {
+                out.println("No appointments scheduled!");
+                return;
+            }
+            for (Appointment appointment : appointments.subList(0, Math.min(limit, appointments.size()))) {
+                String other = currentCaregiver != null ? appointment.getPatient() : appointment.getCaregiver();
+                String slot = appointment.getSlot() == null ? null : SlotIndex.toTime(appointment.getSlot()).toString();
+                String time = slot == null ? appointment.getTime().toString() : appointment.getTime() + " " + slot;
+                output.row(appointment.getId() + " " + appointment.getVaccine() + " " + time + " " + other,
+                        "id", appointment.getId(), "vaccine", appointment.getVaccine(), "date", appointment.getTime(),
+                        "time", slot, currentCaregiver != null ? "patient" : "caregiver", other);
+            }
+            if (appointments.size() > limit) {
+                Appointment last = appointments.get(limit - 1);
+                out.println("More appointments: show_appointments --after " + last.getTime() + ":" + last.getId()
+                        + " --limit " + limit);
+            }
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            UnitOfWork.setRollbackOnly();
+            out.println("Please try again");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
+    private void stats(String[] tokens) {
+        // stats
+        if (tokens.length != 1) {
+            out.println("Please try again.");
+            return;
+        }
+        out.printf("%-28s %8s %8s %10s %10s %10s %10s %10s%n", "command", "count", "errors", "trips/cmd",
+                "mean ms", "p50 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, CommandStats> entry : CommandMetrics.getInstance().getCommands().entrySet()) {
+            CommandStats stats = entry.getValue();
+            long count = stats.getCount();
+            out.printf("%-28s %8d %8d %10.2f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), count,
+                    stats.getErrors(), count == 0 ? 0.0 : (double) stats.getRoundTrips() / count,
+                    stats.getMeanMillis(), stats.getP50Millis(), stats.getP99Millis(), stats.getMaxMillis());
+        }
+        if (LocalStore.isEnabled()) {
+            out.println(LocalStore.describe());
+        } else {
+            out.println(ConnectionManager.getPool());
+            out.println(Resilience.getBreaker());
+        }
+    }
+
+    private void logout(String[] tokens) {
         // Asks the user to try again if they enter additional characters after logout
         if (tokens.length > 1) {
-            System.out.println("Please try again.");
+            out.println("Please try again.");
             return;
         }
 
         if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first.");
+            out.println("Please login first.");
             return;
         }
         // Logout
         currentCaregiver = null;
         currentPatient = null;
-        System.out.println("Successfully logged out.");
+        out.println("Successfully logged out.");
     }
 }
\ No newline at end of file
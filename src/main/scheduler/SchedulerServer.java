@@ -0,0 +1,165 @@
+package scheduler;
+
+import scheduler.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Serves the scheduler's commands over TCP, one per line, with a Scheduler session per connection
+class SchedulerServer {
+
+    // enough for a full page of results, which then goes out in one write
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final int port;
+    private final int maxConnections;
+    private final long shutdownGraceMillis;
+    private final int idleTimeoutMillis;
+
+    private final Semaphore connectionPermits;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sessions = newSessionExecutor();
+    private volatile ServerSocket serverSocket = null;
+    private volatile boolean shuttingDown = false;
+
+    SchedulerServer(int port, int maxConnections, long shutdownGraceMillis, int idleTimeoutMillis) {
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.shutdownGraceMillis = shutdownGraceMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    static SchedulerServer fromEnvironment() {
+        return new SchedulerServer(
+                Util.getIntEnv("ServerPort", 4141),
+                Util.getIntEnv("ServerMaxConnections", 10000),
+                Util.getLongEnv("ServerShutdownGraceMs", 10 * 1000),
+                Util.getIntEnv("ServerIdleTimeoutMs", 15 * 60 * 1000));
+    }
+
+    // accepts connections until the process is asked to shut down
+    void run() throws IOException {
+        serverSocket = new ServerSocket(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "scheduler-server-shutdown"));
+        System.out.println("Listening on port " + port + " for at most " + maxConnections + " connections");
+
+        while (!shuttingDown) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (SocketException e) {
+                if (shuttingDown) {
+                    break;
+                }
+                throw e;
+            }
+            if (!connectionPermits.tryAcquire()) {
+                reject(client);
+                continue;
+            }
+            clients.add(client);
+            sessions.execute(() -> {
+                try {
+                    serve(client);
+                } finally {
+                    clients.remove(client);
+                    connectionPermits.release();
+                }
+            });
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE),
+                     false, StandardCharsets.UTF_8)) {
+            socket.setSoTimeout(idleTimeoutMillis);
+            Scheduler session = new Scheduler(out, true);
+            String line;
+            while (!shuttingDown && (line = in.readLine()) != null) {
+                boolean more = session.execute(line);
+                out.flush();
+                if (!more) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // idle session, just drop it
+        } catch (IOException e) {
+            if (!shuttingDown) {
+                System.err.println("Session ended with an error: " + e);
+            }
+        }
+    }
+
+    private void reject(Socket client) {
+        try (Socket socket = client;
+             PrintWriter out = new PrintWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            out.println("Server is busy, please try again later.");
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+    // stops accepting, lets running commands finish within the grace period, then closes what is left
+    void shutdown() {
+        shuttingDown = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        sessions.shutdown();
+        try {
+            if (!sessions.awaitTermination(shutdownGraceMillis, TimeUnit.MILLISECONDS)) {
+                for (Socket client : clients) {
+                    try {
+                        client.close();
+                    } catch (IOException e) {
+                        // closing anyway
+                    }
+                }
+                sessions.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // one virtual thread per session on JDK 21+, otherwise a platform thread per session
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scheduler-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
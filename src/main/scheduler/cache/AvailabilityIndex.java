@@ -0,0 +1,179 @@
+package scheduler.cache;
+
+import scheduler.dao.AvailabilityDao;
+import scheduler.dao.TableSnapshot;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// In-process copy of the Availabilities table, the sorted caregivers of each epoch day plus a DayCounter of them.
+// Written through on commit and reconciled periodically. Readers take no lock; changes made during a rebuild are
+// replayed on the new copy.
+public class AvailabilityIndex {
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    // the caregivers of every day along with their number per day, swapped in as one on a rebuild
+    private static final class Days {
+        private final ConcurrentSkipListMap<Long, ConcurrentSkipListSet<String>> byDay = new ConcurrentSkipListMap<>();
+        private final DayCounter counter = new DayCounter();
+
+        private void add(long epochDay, String username) {
+            if (byDay.computeIfAbsent(epochDay, day -> new ConcurrentSkipListSet<>()).add(username)) {
+                counter.add(epochDay, 1);
+            }
+        }
+
+        private void remove(long epochDay, String username) {
+            ConcurrentSkipListSet<String> caregivers = byDay.get(epochDay);
+            if (caregivers != null && caregivers.remove(username)) {
+                counter.add(epochDay, -1);
+                if (caregivers.isEmpty()) {
+                    byDay.remove(epochDay, caregivers);
+                }
+            }
+        }
+
+        private void removeAll(String username, long fromEpochDay, long toEpochDay) {
+            for (Long day : byDay.subMap(fromEpochDay, true, toEpochDay, true).keySet()) {
+                remove(day, username);
+            }
+        }
+    }
+
+    private interface Loader {
+        void load(Days days) throws SQLException;
+    }
+
+    private volatile Days days = new Days();
+    private volatile boolean warm = false;
+    // changes made while a rebuild is loading, or null if there is none, guarded by this
+    private List<Consumer<Days>> replay = null;
+    // held for the whole of a rebuild, so that there is one at a time
+    private final Object rebuilding = new Object();
+    private ScheduledExecutorService reconciler = null;
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    public static long toEpochDay(Date d) {
+        return d.toLocalDate().toEpochDay();
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    // caregivers available on the given day, in username order
+    public NavigableSet<String> getCaregivers(long epochDay) {
+        ConcurrentSkipListSet<String> caregivers = days.byDay.get(epochDay);
+        if (caregivers == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(caregivers);
+    }
+
+    // number of caregiver-days available between the two days, inclusive
+    public int count(long fromEpochDay, long toEpochDay) {
+        return days.counter.count(fromEpochDay, toEpochDay);
+    }
+
+    // the first day on or after the given one with a caregiver available, or -1 if there is none
+    public long nextDay(long fromEpochDay) {
+        return days.counter.next(fromEpochDay);
+    }
+
+    public void add(long epochDay, String username) {
+        update(days -> days.add(epochDay, username));
+    }
+
+    public void remove(long epochDay, String username) {
+        update(days -> days.remove(epochDay, username));
+    }
+
+    // removes the caregiver from every day between the two, inclusive
+    public void removeAll(String username, long fromEpochDay, long toEpochDay) {
+        update(days -> days.removeAll(username, fromEpochDay, toEpochDay));
+    }
+
+    // rebuilds the index from the Availabilities table and swaps it in
+    public void reload() throws SQLException {
+        rebuild(loaded -> AvailabilityDao.forEach((time, username) -> loaded.add(toEpochDay(time), username)));
+    }
+
+    // builds the index from the availabilities of a snapshot that is current, instead of from the table
+    public void load(TableSnapshot snapshot) {
+        try {
+            rebuild(loaded -> snapshot.forEachAvailability(loaded::add));
+        } catch (SQLException e) {
+            // only the table can fail to load
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void update(Consumer<Days> change) {
+        change.accept(days);
+        if (replay != null) {
+            replay.add(change);
+        }
+    }
+
+    // Loads a new copy of the index and swaps it in, with the changes made in the meantime applied to it. A change
+    // the load has already seen is applied again, which leaves the copy as it is.
+    private void rebuild(Loader loader) throws SQLException {
+        synchronized (rebuilding) {
+            synchronized (this) {
+                replay = new ArrayList<>();
+            }
+            Days loaded = new Days();
+            try {
+                loader.load(loaded);
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    replay = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                replay.forEach(change -> change.accept(loaded));
+                replay = null;
+                days = loaded;
+                warm = true;
+            }
+        }
+    }
+
+    // reconciles the index against the table every interval, until the process exits
+    public synchronized void startReconciler(long intervalMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "availability-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (SQLException | RuntimeException e) {
+                // keep serving the last good copy, the next run will try again
+                System.err.println("Failed to reconcile availabilities: " + e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.cache;
+
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.TableSnapshot;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Number of upcoming appointments of each caregiver, to hand new reservations to the least busy one. Loaded at
+// start-up and kept up to date by this process only, which is fine as it only steers the choice.
+public class CaregiverLoad {
+
+    private static final CaregiverLoad instance = new CaregiverLoad();
+
+    private volatile Map<String, AtomicInteger> appointments = new ConcurrentHashMap<>();
+
+    private CaregiverLoad() {
+    }
+
+    public static CaregiverLoad getInstance() {
+        return instance;
+    }
+
+    public int get(String caregiver) {
+        AtomicInteger count = appointments.get(caregiver);
+        return count == null ? 0 : count.get();
+    }
+
+    public void adjust(String caregiver, int delta) {
+        appointments.computeIfAbsent(caregiver, username -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    // recounts the appointments from today on and swaps the counts in
+    public void reload() throws SQLException {
+        Map<String, AtomicInteger> loaded = new ConcurrentHashMap<>();
+        AppointmentDao.countByCaregiver(Date.valueOf(LocalDate.now()))
+                .forEach((caregiver, count) -> loaded.put(caregiver, new AtomicInteger(count)));
+        appointments = loaded;
+    }
+
+    // counts the appointments from today on in a snapshot that is current, instead of in the table
+    public void load(TableSnapshot snapshot) {
+        Map<String, AtomicInteger> loaded = new ConcurrentHashMap<>();
+        long today = LocalDate.now().toEpochDay();
+        snapshot.forEachAppointment((id, patient, caregiver, vaccine, epochDay, slot) -> {
+            if (epochDay >= today) {
+                loaded.computeIfAbsent(caregiver, username -> new AtomicInteger()).incrementAndGet();
+            }
+        });
+        appointments = loaded;
+    }
+}
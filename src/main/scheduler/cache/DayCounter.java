@@ -0,0 +1,64 @@
+package scheduler.cache;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Fenwick tree of counts per epoch day, for range sums and next non-zero day lookups in logarithmic time, over a
+// fixed window of DAYS days starting a year before it was created.
+class DayCounter {
+
+    static final int DAYS = 1 << 13;
+
+    private final long firstDay = LocalDate.now().minusYears(1).toEpochDay();
+    // 1-based, tree[i] holds the sum of the lowbit(i) days ending at day i
+    private final AtomicIntegerArray tree = new AtomicIntegerArray(DAYS + 1);
+
+    void add(long epochDay, int delta) {
+        if (epochDay < firstDay || epochDay >= firstDay + DAYS || delta == 0) {
+            return;
+        }
+        for (int i = (int) (epochDay - firstDay) + 1; i <= DAYS; i += i & -i) {
+            tree.addAndGet(i, delta);
+        }
+    }
+
+    // sum of the counts of the days between the two, inclusive
+    int count(long fromEpochDay, long toEpochDay) {
+        long from = Math.max(fromEpochDay, firstDay);
+        long to = Math.min(toEpochDay, firstDay + DAYS - 1);
+        if (from > to) {
+            return 0;
+        }
+        return prefix((int) (to - firstDay) + 1) - prefix((int) (from - firstDay));
+    }
+
+    // the first day on or after the given one with a count, or -1 if there is none in the window
+    long next(long fromEpochDay) {
+        long from = Math.max(fromEpochDay, firstDay);
+        if (from >= firstDay + DAYS) {
+            return -1;
+        }
+        // descend the tree for the last position whose prefix sum does not exceed the sum before the day
+        int target = prefix((int) (from - firstDay));
+        int position = 0;
+        for (int step = Integer.highestOneBit(DAYS); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= DAYS) {
+                int sum = tree.get(next);
+                if (sum <= target) {
+                    position = next;
+                    target -= sum;
+                }
+            }
+        }
+        return position < DAYS ? firstDay + position : -1;
+    }
+
+    private int prefix(int days) {
+        int sum = 0;
+        for (int i = days; i > 0; i -= i & -i) {
+            sum += tree.get(i);
+        }
+        return sum;
+    }
+}
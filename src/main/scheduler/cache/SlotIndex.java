@@ -0,0 +1,268 @@
+package scheduler.cache;
+
+import scheduler.dao.SlotDao;
+import scheduler.dao.TableSnapshot;
+
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// In-process copy of the SlotAvailabilities table, a bitmap of the free slots per day and caregiver. Bitmaps are
+// swapped, never changed in place, and changes made during a rebuild are replayed on the new copy.
+public class SlotIndex {
+
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+    public static final int SLOTS_PER_WORD = SLOTS_PER_DAY / 2;
+
+    private static final SlotIndex instance = new SlotIndex();
+
+    // the bitmaps of every day along with the number of free slots per day, swapped in as one on a rebuild
+    private static final class Days {
+        private final ConcurrentSkipListMap<Long, ConcurrentSkipListMap<String, long[]>> byDay =
+                new ConcurrentSkipListMap<>();
+        private final DayCounter counter = new DayCounter();
+
+        private void add(long epochDay, String username, long[] mask) {
+            if (count(mask) == 0) {
+                return;
+            }
+            ConcurrentSkipListMap<String, long[]> caregivers =
+                    byDay.computeIfAbsent(epochDay, day -> new ConcurrentSkipListMap<>());
+            long[] before = caregivers.getOrDefault(username, new long[2]);
+            long[] after = {before[0] | mask[0], before[1] | mask[1]};
+            caregivers.put(username, after);
+            counter.add(epochDay, count(after) - count(before));
+        }
+
+        private void remove(long epochDay, String username, long[] mask) {
+            ConcurrentSkipListMap<String, long[]> caregivers = byDay.get(epochDay);
+            long[] before = caregivers == null ? null : caregivers.get(username);
+            if (before == null) {
+                return;
+            }
+            long[] left = {before[0] & ~mask[0], before[1] & ~mask[1]};
+            if (count(left) == 0) {
+                caregivers.remove(username);
+                if (caregivers.isEmpty()) {
+                    byDay.remove(epochDay, caregivers);
+                }
+            } else {
+                caregivers.put(username, left);
+            }
+            counter.add(epochDay, count(left) - count(before));
+        }
+
+        private void removeAll(String username, long fromEpochDay, long toEpochDay) {
+            for (Long day : byDay.subMap(fromEpochDay, true, toEpochDay, true).keySet()) {
+                remove(day, username, mask(0, SLOTS_PER_DAY));
+            }
+        }
+    }
+
+    private interface Loader {
+        void load(Days days) throws SQLException;
+    }
+
+    private volatile Days days = new Days();
+    private volatile boolean warm = false;
+    // changes made while a rebuild is loading, or null if there is none, guarded by this
+    private List<Consumer<Days>> replay = null;
+    // held for the whole of a rebuild, so that there is one at a time
+    private final Object rebuilding = new Object();
+    private ScheduledExecutorService reconciler = null;
+
+    private SlotIndex() {
+    }
+
+    public static SlotIndex getInstance() {
+        return instance;
+    }
+
+    // the slot starting at the time, or -1 if the time is not on a slot boundary
+    public static int toSlot(LocalTime time) {
+        int minutes = time.getHour() * 60 + time.getMinute();
+        if (time.getSecond() != 0 || time.getNano() != 0 || minutes % SLOT_MINUTES != 0) {
+            return -1;
+        }
+        return minutes / SLOT_MINUTES;
+    }
+
+    public static LocalTime toTime(int slot) {
+        return LocalTime.MIN.plusMinutes((long) slot * SLOT_MINUTES);
+    }
+
+    // bitmap of the slots from, inclusive, to to, exclusive
+    public static long[] mask(int from, int to) {
+        long[] mask = new long[2];
+        for (int slot = from; slot < to; slot++) {
+            mask[slot / SLOTS_PER_WORD] |= 1L << (slot % SLOTS_PER_WORD);
+        }
+        return mask;
+    }
+
+    public static boolean isFree(long[] slots, int slot) {
+        return (slots[slot / SLOTS_PER_WORD] & (1L << (slot % SLOTS_PER_WORD))) != 0;
+    }
+
+    public static int count(long[] slots) {
+        return Long.bitCount(slots[0]) + Long.bitCount(slots[1]);
+    }
+
+    // the first free slot at or after from, or -1 if there is none
+    public static int nextFree(long[] slots, int from) {
+        for (int word = from / SLOTS_PER_WORD; word < 2; word++) {
+            long bits = slots[word];
+            if (word == from / SLOTS_PER_WORD) {
+                bits &= -1L << (from % SLOTS_PER_WORD);
+            }
+            if (bits != 0) {
+                return word * SLOTS_PER_WORD + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    // the free slots as time ranges, e.g. "09:00-11:30, 13:00-14:00"
+    public static String describe(long[] slots) {
+        StringBuilder ranges = new StringBuilder();
+        int start = nextFree(slots, 0);
+        while (start >= 0) {
+            int end = start + 1;
+            while (end < SLOTS_PER_DAY && isFree(slots, end)) {
+                end++;
+            }
+            if (ranges.length() > 0) {
+                ranges.append(", ");
+            }
+            ranges.append(toTime(start)).append('-').append(end == SLOTS_PER_DAY ? "24:00" : toTime(end).toString());
+            start = end < SLOTS_PER_DAY ? nextFree(slots, end) : -1;
+        }
+        return ranges.toString();
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    // the free slots of every caregiver on the day, in username order
+    public Map<String, long[]> getSlots(long epochDay) {
+        ConcurrentSkipListMap<String, long[]> caregivers = days.byDay.get(epochDay);
+        if (caregivers == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(caregivers);
+    }
+
+    // caregivers with the slot free on the day, in username order
+    public List<String> getCaregivers(long epochDay, int slot) {
+        List<String> caregivers = new ArrayList<>();
+        getSlots(epochDay).forEach((username, slots) -> {
+            if (isFree(slots, slot)) {
+                caregivers.add(username);
+            }
+        });
+        return caregivers;
+    }
+
+    // number of free slots between the two days, inclusive
+    public int count(long fromEpochDay, long toEpochDay) {
+        return days.counter.count(fromEpochDay, toEpochDay);
+    }
+
+    // the first day on or after the given one with a free slot, or -1 if there is none
+    public long nextDay(long fromEpochDay) {
+        return days.counter.next(fromEpochDay);
+    }
+
+    public void add(long epochDay, String username, long[] mask) {
+        long[] copy = mask.clone();
+        update(days -> days.add(epochDay, username, copy));
+    }
+
+    public void remove(long epochDay, String username, long[] mask) {
+        long[] copy = mask.clone();
+        update(days -> days.remove(epochDay, username, copy));
+    }
+
+    // removes every slot of the caregiver on the days between the two, inclusive
+    public void removeAll(String username, long fromEpochDay, long toEpochDay) {
+        update(days -> days.removeAll(username, fromEpochDay, toEpochDay));
+    }
+
+    // rebuilds the index from the SlotAvailabilities table and swaps it in
+    public void reload() throws SQLException {
+        rebuild(loaded -> SlotDao.forEach(
+                (time, username, slots) -> loaded.add(AvailabilityIndex.toEpochDay(time), username, slots)));
+    }
+
+    // builds the index from the slots of a snapshot that is current, instead of from the table
+    public void load(TableSnapshot snapshot) {
+        try {
+            rebuild(loaded -> snapshot.forEachSlots(loaded::add));
+        } catch (SQLException e) {
+            // only the table can fail to load
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void update(Consumer<Days> change) {
+        change.accept(days);
+        if (replay != null) {
+            replay.add(change);
+        }
+    }
+
+    // Loads a new copy of the index and swaps it in, with the changes made in the meantime applied to it. A change
+    // the load has already seen is applied again, which leaves the copy as it is.
+    private void rebuild(Loader loader) throws SQLException {
+        synchronized (rebuilding) {
+            synchronized (this) {
+                replay = new ArrayList<>();
+            }
+            Days loaded = new Days();
+            try {
+                loader.load(loaded);
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    replay = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                replay.forEach(change -> change.accept(loaded));
+                replay = null;
+                days = loaded;
+                warm = true;
+            }
+        }
+    }
+
+    // reconciles the index against the table every interval, until the process exits
+    public synchronized void startReconciler(long intervalMillis) {
+        if (reconciler != null) {
+            return;
+        }
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "slot-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (SQLException | RuntimeException e) {
+                // keep serving the last good copy, the next run will try again
+                System.err.println("Failed to reconcile slots: " + e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,131 @@
+package scheduler.cache;
+
+import scheduler.dao.VaccineDao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cached copy of the Vaccines table, rendered the way search_caregiver_schedule prints it. Reloaded once older than
+// the staleness bound, to pick up changes made by other processes.
+public class VaccineCatalog {
+
+    private static final VaccineCatalog instance = new VaccineCatalog();
+
+    private volatile Snapshot snapshot = null;
+    private volatile long maxStalenessMillis = 30 * 1000;
+    // bumped on every local change, so a reload that raced with one is not trusted
+    private final AtomicLong version = new AtomicLong();
+
+    public static class Snapshot {
+        private final SortedMap<String, Integer> doses;
+        private final List<String> lines;
+        private final long loadedAt;
+
+        private Snapshot(SortedMap<String, Integer> doses, long loadedAt) {
+            this.doses = Collections.unmodifiableSortedMap(doses);
+            List<String> lines = new ArrayList<>(doses.size());
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                lines.add(entry.getKey() + " " + entry.getValue());
+            }
+            this.lines = Collections.unmodifiableList(lines);
+            this.loadedAt = loadedAt;
+        }
+
+        public SortedMap<String, Integer> getDoses() {
+            return doses;
+        }
+
+        // returns 0 for vaccines that are not in the catalog
+        public int getDoses(String vaccineName) {
+            Integer available = doses.get(vaccineName);
+            return available == null ? 0 : available;
+        }
+
+        public boolean contains(String vaccineName) {
+            return doses.containsKey(vaccineName);
+        }
+
+        // one "<name> <doses>" line per vaccine, in name order
+        public List<String> getLines() {
+            return lines;
+        }
+
+        private boolean isFresh(long maxStalenessMillis) {
+            return System.currentTimeMillis() - loadedAt <= maxStalenessMillis;
+        }
+    }
+
+    private VaccineCatalog() {
+    }
+
+    public static VaccineCatalog getInstance() {
+        return instance;
+    }
+
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public Snapshot getSnapshot() throws SQLException {
+        return getSnapshot(maxStalenessMillis);
+    }
+
+    // returns a copy that is at most maxStalenessMillis old, reloading it from the database if needed
+    public Snapshot getSnapshot(long maxStalenessMillis) throws SQLException {
+        Snapshot current = snapshot;
+        if (current != null && current.isFresh(maxStalenessMillis)) {
+            return current;
+        }
+        return reload();
+    }
+
+    // returns the cached copy if it is within the staleness bound, without ever going to the database
+    public Snapshot peek() {
+        Snapshot current = snapshot;
+        if (current != null && current.isFresh(maxStalenessMillis)) {
+            return current;
+        }
+        return null;
+    }
+
+    public Snapshot reload() throws SQLException {
+        long versionBefore = version.get();
+        return install(VaccineDao.getAll(), versionBefore);
+    }
+
+    // fills the catalog from the doses read out of a table snapshot that is current
+    public Snapshot load(SortedMap<String, Integer> doses) {
+        return install(doses, version.get());
+    }
+
+    private synchronized Snapshot install(SortedMap<String, Integer> doses, long versionBefore) {
+        // a local change landed while we were reading, serve this copy once but reload on the next read
+        long loadedAt = version.get() == versionBefore ? System.currentTimeMillis() : 0;
+        Snapshot loaded = new Snapshot(doses, loadedAt);
+        snapshot = loaded;
+        return loaded;
+    }
+
+    public synchronized void invalidate() {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    // records a committed change of the dose count, creating the vaccine if it is new
+    public synchronized void adjust(String vaccineName, int delta) {
+        version.incrementAndGet();
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        SortedMap<String, Integer> doses = new TreeMap<>(current.doses);
+        doses.merge(vaccineName, delta, Integer::sum);
+        snapshot = new Snapshot(doses, current.loadedAt);
+    }
+}
@@ -0,0 +1,397 @@
+package scheduler.dao;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Queries on the Appointments table, including the reservation batch that books them
+public class AppointmentDao {
+
+    // Appointments are listed in (Time, ID) order, a page at a time. The next page starts right after the (Time, ID)
+    // of the last appointment of the previous one, so every page is a seek on the (user, Time, ID) index no matter
+    // how deep, and paging goes on even if that appointment has been cancelled since.
+    private static final String selectCaregiverAppointments =
+            "SELECT TOP (?) ID, Patient, Caregiver, Vaccine, Time, Slot FROM Appointments WHERE Caregiver = ? " +
+            "ORDER BY Time, ID";
+    private static final String selectCaregiverAppointmentsAfter =
+            "SELECT TOP (?) ID, Patient, Caregiver, Vaccine, Time, Slot FROM Appointments WHERE Caregiver = ? " +
+            "AND (Time > ? OR (Time = ? AND ID > ?)) ORDER BY Time, ID";
+    private static final String selectPatientAppointments =
+            "SELECT TOP (?) ID, Patient, Caregiver, Vaccine, Time, Slot FROM Appointments WHERE Patient = ? " +
+            "ORDER BY Time, ID";
+    private static final String selectPatientAppointmentsAfter =
+            "SELECT TOP (?) ID, Patient, Caregiver, Vaccine, Time, Slot FROM Appointments WHERE Patient = ? " +
+            "AND (Time > ? OR (Time = ? AND ID > ?)) ORDER BY Time, ID";
+    private static final String selectAppointments =
+            "SELECT ID, Patient, Caregiver, Vaccine, Time, Slot FROM Appointments";
+    private static final String insertAppointment =
+            "INSERT INTO Appointments (Patient, Caregiver, Vaccine, Time) VALUES (?, ?, ?, ?)";
+    private static final String countCaregiverAppointments =
+            "SELECT Caregiver, COUNT(*) AS Appointments FROM Appointments WHERE Time >= ? GROUP BY Caregiver";
+
+    // Claims the preferred caregiver if given and still free, otherwise the first free caregiver, skipping rows other
+    // bookers have locked. Then decrements the dose only while there are doses left and inserts the appointment, all
+    // in one round trip. XACT_ABORT makes any error roll back the whole transaction, so a failed attempt never leaves
+    // half of its changes behind.
+    // With a dose lease, the dose has already been taken from Vaccines by the lease: the batch leaves Vaccines alone,
+    // records the lease on the appointment and holds a shared lock on the lease row until it commits, so the lease
+    // cannot be returned underneath it. Status 2 then means the lease is gone.
+    private static final String reserveAppointment =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @time date = ?, @vaccine varchar(255) = ?, @patient varchar(255) = ?;\n" +
+            "DECLARE @preferred varchar(255) = ?, @lease int = ?;\n" +
+            "DECLARE @claimed TABLE (Username varchar(255));\n" +
+            "DECLARE @appointment TABLE (ID int);\n" +
+            "DECLARE @status int = 0, @taken int = 1;\n" +
+            "IF NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = @time) SET @status = @status | 1;\n" +
+            "IF @lease IS NULL AND NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = @vaccine AND Doses > 0)\n" +
+            "    SET @status = @status | 2;\n" +
+            "IF @lease IS NOT NULL\n" +
+            "   AND NOT EXISTS (SELECT 1 FROM DoseLeases WITH (REPEATABLEREAD, ROWLOCK) WHERE ID = @lease)\n" +
+            "    SET @status = @status | 2;\n" +
+            "IF @status = 0\n" +
+            "BEGIN\n" +
+            "    IF @preferred IS NOT NULL\n" +
+            "        DELETE FROM Availabilities WITH (UPDLOCK, ROWLOCK, READPAST)\n" +
+            "        OUTPUT deleted.Username INTO @claimed WHERE Time = @time AND Username = @preferred;\n" +
+            "    IF NOT EXISTS (SELECT 1 FROM @claimed)\n" +
+            "    BEGIN\n" +
+            "        WITH next AS (SELECT TOP (1) Time, Username\n" +
+            "                      FROM Availabilities WITH (UPDLOCK, ROWLOCK, READPAST)\n" +
+            "                      WHERE Time = @time ORDER BY Username)\n" +
+            "        DELETE FROM next OUTPUT deleted.Username INTO @claimed;\n" +
+            "    END\n" +
+            "    IF NOT EXISTS (SELECT 1 FROM @claimed)\n" +
+            "        SET @status = 4;\n" +
+            "    ELSE\n" +
+            "    BEGIN\n" +
+            "        IF @lease IS NULL\n" +
+            "        BEGIN\n" +
+            "            UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = @vaccine AND Doses > 0;\n" +
+            "            SET @taken = @@ROWCOUNT;\n" +
+            "        END\n" +
+            "        IF @taken = 0\n" +
+            "        BEGIN\n" +
+            "            INSERT INTO Availabilities (Time, Username) SELECT @time, Username FROM @claimed;\n" +
+            "            SET @status = 4;\n" +
+            "        END\n" +
+            "        ELSE\n" +
+            "            INSERT INTO Appointments (Patient, Caregiver, Vaccine, Time, Lease)\n" +
+            "            OUTPUT inserted.ID INTO @appointment\n" +
+            "            SELECT @patient, Username, @vaccine, @time, @lease FROM @claimed;\n" +
+            "    END\n" +
+            "END;\n" +
+            "SELECT @status AS Status, (SELECT TOP (1) ID FROM @appointment) AS ID,\n" +
+            "       (SELECT TOP (1) Username FROM @claimed) AS Caregiver;";
+
+    // Same as reserveAppointment for a single slot of the day: instead of deleting an availability row, the slot's
+    // bit is cleared from the bitmaps of a caregiver that still has it set.
+    private static final String reserveSlotAppointment =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @time date = ?, @vaccine varchar(255) = ?, @patient varchar(255) = ?;\n" +
+            "DECLARE @preferred varchar(255) = ?, @slot smallint = ?, @am bigint = ?, @pm bigint = ?;\n" +
+            "DECLARE @lease int = ?;\n" +
+            "DECLARE @claimed TABLE (Username varchar(255));\n" +
+            "DECLARE @appointment TABLE (ID int);\n" +
+            "DECLARE @status int = 0, @taken int = 1;\n" +
+            "IF NOT EXISTS (SELECT 1 FROM SlotAvailabilities\n" +
+            "               WHERE Time = @time AND ((SlotsAm & @am) <> 0 OR (SlotsPm & @pm) <> 0))\n" +
+            "    SET @status = @status | 1;\n" +
+            "IF @lease IS NULL AND NOT EXISTS (SELECT 1 FROM Vaccines WHERE Name = @vaccine AND Doses > 0)\n" +
+            "    SET @status = @status | 2;\n" +
+            "IF @lease IS NOT NULL\n" +
+            "   AND NOT EXISTS (SELECT 1 FROM DoseLeases WITH (REPEATABLEREAD, ROWLOCK) WHERE ID = @lease)\n" +
+            "    SET @status = @status | 2;\n" +
+            "IF @status = 0\n" +
+            "BEGIN\n" +
+            "    IF @preferred IS NOT NULL\n" +
+            "        UPDATE SlotAvailabilities WITH (UPDLOCK, ROWLOCK, READPAST)\n" +
+            "        SET SlotsAm = SlotsAm & ~@am, SlotsPm = SlotsPm & ~@pm OUTPUT inserted.Username INTO @claimed\n" +
+            "        WHERE Time = @time AND Username = @preferred\n" +
+            "        AND ((SlotsAm & @am) <> 0 OR (SlotsPm & @pm) <> 0);\n" +
+            "    IF NOT EXISTS (SELECT 1 FROM @claimed)\n" +
+            "    BEGIN\n" +
+            "        WITH next AS (SELECT TOP (1) Username, SlotsAm, SlotsPm\n" +
+            "                      FROM SlotAvailabilities WITH (UPDLOCK, ROWLOCK, READPAST)\n" +
+            "                      WHERE Time = @time AND ((SlotsAm & @am) <> 0 OR (SlotsPm & @pm) <> 0)\n" +
+            "                      ORDER BY Username)\n" +
+            "        UPDATE next SET SlotsAm = SlotsAm & ~@am, SlotsPm = SlotsPm & ~@pm\n" +
+            "        OUTPUT inserted.Username INTO @claimed;\n" +
+            "    END\n" +
+            "    IF NOT EXISTS (SELECT 1 FROM @claimed)\n" +
+            "        SET @status = 4;\n" +
+            "    ELSE\n" +
+            "    BEGIN\n" +
+            "        IF @lease IS NULL\n" +
+            "        BEGIN\n" +
+            "            UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = @vaccine AND Doses > 0;\n" +
+            "            SET @taken = @@ROWCOUNT;\n" +
+            "        END\n" +
+            "        IF @taken = 0\n" +
+            "        BEGIN\n" +
+            "            UPDATE s SET SlotsAm = s.SlotsAm | @am, SlotsPm = s.SlotsPm | @pm\n" +
+            "            FROM SlotAvailabilities s JOIN @claimed c ON c.Username = s.Username WHERE s.Time = @time;\n" +
+            "            SET @status = 4;\n" +
+            "        END\n" +
+            "        ELSE\n" +
+            "            INSERT INTO Appointments (Patient, Caregiver, Vaccine, Time, Slot, Lease)\n" +
+            "            OUTPUT inserted.ID INTO @appointment\n" +
+            "            SELECT @patient, Username, @vaccine, @time, @slot, @lease FROM @claimed;\n" +
+            "    END\n" +
+            "END;\n" +
+            "SELECT @status AS Status, (SELECT TOP (1) ID FROM @appointment) AS ID,\n" +
+            "       (SELECT TOP (1) Username FROM @claimed) AS Caregiver;";
+
+    // Gives the doses of the appointments in @cancelled back to Vaccines, except those booked under a lease that is
+    // still held, and marks the ones given back as Returned.
+    private static final String returnDoses =
+            "UPDATE c SET Returned = 1 FROM @cancelled c\n" +
+            "WHERE c.Lease IS NULL\n" +
+            "OR NOT EXISTS (SELECT 1 FROM DoseLeases l WITH (READCOMMITTEDLOCK) WHERE l.ID = c.Lease);\n" +
+            "UPDATE v SET Doses = v.Doses + c.Doses FROM Vaccines v\n" +
+            "JOIN (SELECT Vaccine, COUNT(*) AS Doses FROM @cancelled WHERE Returned = 1 GROUP BY Vaccine) c\n" +
+            "ON c.Vaccine = v.Name;\n";
+
+    // Deletes the appointment if it belongs to the patient or the caregiver, gives the caregiver the day or the slot
+    // back and returns the dose, in one round trip. Returns the cancelled appointment, or no row if there was none.
+    // The dose of an appointment booked under a lease that is still held stays with the lease, which gives it back
+    // when it is returned; Returned tells whether the dose went back to Vaccines.
+    private static final String cancelAppointment =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @id int = ?, @patient varchar(255) = ?, @caregiver varchar(255) = ?;\n" +
+            "DECLARE @cancelled TABLE (ID int, Patient varchar(255), Caregiver varchar(255), Vaccine varchar(255),\n" +
+            "                          Time date, Slot smallint, Lease int, Returned bit NOT NULL DEFAULT 0);\n" +
+            "DELETE FROM Appointments\n" +
+            "OUTPUT deleted.ID, deleted.Patient, deleted.Caregiver, deleted.Vaccine, deleted.Time, deleted.Slot,\n" +
+            "       deleted.Lease\n" +
+            "INTO @cancelled (ID, Patient, Caregiver, Vaccine, Time, Slot, Lease)\n" +
+            "WHERE ID = @id AND (Patient = @patient OR Caregiver = @caregiver);\n" +
+            returnDoses +
+            "INSERT INTO Availabilities (Time, Username) SELECT c.Time, c.Caregiver FROM @cancelled c\n" +
+            "WHERE c.Slot IS NULL\n" +
+            "AND NOT EXISTS (SELECT 1 FROM Availabilities a WHERE a.Time = c.Time AND a.Username = c.Caregiver);\n" +
+            "DECLARE @am bigint = 0, @pm bigint = 0;\n" +
+            "SELECT @am = CASE WHEN Slot < 48 THEN POWER(CAST(2 AS bigint), Slot) ELSE 0 END,\n" +
+            "       @pm = CASE WHEN Slot >= 48 THEN POWER(CAST(2 AS bigint), Slot - 48) ELSE 0 END\n" +
+            "FROM @cancelled WHERE Slot IS NOT NULL;\n" +
+            "IF @am <> 0 OR @pm <> 0\n" +
+            "BEGIN\n" +
+            "    UPDATE s SET SlotsAm = s.SlotsAm | @am, SlotsPm = s.SlotsPm | @pm\n" +
+            "    FROM SlotAvailabilities s JOIN @cancelled c ON s.Time = c.Time AND s.Username = c.Caregiver;\n" +
+            "    IF @@ROWCOUNT = 0\n" +
+            "        INSERT INTO SlotAvailabilities (Time, Username, SlotsAm, SlotsPm)\n" +
+            "        SELECT Time, Caregiver, @am, @pm FROM @cancelled;\n" +
+            "END;\n" +
+            "SELECT ID, Patient, Caregiver, Vaccine, Time, Slot, Returned FROM @cancelled;";
+
+    // Deletes all the appointments of a caregiver between two dates and returns their doses, in one round trip,
+    // however many appointments there are. The caregiver's availability and slots are left alone. Returns the cancelled
+    // appointments in (Time, ID) order.
+    // Doses of appointments booked under leases that are still held stay with the leases, as in cancelAppointment.
+    private static final String cancelCaregiverAppointments =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @caregiver varchar(255) = ?, @from date = ?, @to date = ?;\n" +
+            "DECLARE @cancelled TABLE (ID int, Patient varchar(255), Caregiver varchar(255), Vaccine varchar(255),\n" +
+            "                          Time date, Slot smallint, Lease int, Returned bit NOT NULL DEFAULT 0);\n" +
+            "DELETE FROM Appointments\n" +
+            "OUTPUT deleted.ID, deleted.Patient, deleted.Caregiver, deleted.Vaccine, deleted.Time, deleted.Slot,\n" +
+            "       deleted.Lease\n" +
+            "INTO @cancelled (ID, Patient, Caregiver, Vaccine, Time, Slot, Lease)\n" +
+            "WHERE Caregiver = @caregiver AND Time >= @from AND Time <= @to;\n" +
+            returnDoses +
+            "SELECT ID, Patient, Caregiver, Vaccine, Time, Slot, Returned FROM @cancelled ORDER BY Time, ID;";
+
+    private AppointmentDao() {
+    }
+
+    // Up to limit appointments of the caregiver, starting after (afterTime, afterId), or from the first one if after
+    // is null. Pass the Time and ID of the last appointment of a page to get the next one.
+    public static List<Appointment> getForCaregiver(String caregiver, Date afterTime, int afterId, int limit)
+            throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getAppointments(true, caregiver, afterTime, afterId, limit);
+        }
+        if (afterTime == null) {
+            return list(selectCaregiverAppointments, caregiver, limit);
+        }
+        return listAfter(selectCaregiverAppointmentsAfter, caregiver, afterTime, afterId, limit);
+    }
+
+    // same as getForCaregiver, for the appointments of a patient
+    public static List<Appointment> getForPatient(String patient, Date afterTime, int afterId, int limit)
+            throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getAppointments(false, patient, afterTime, afterId, limit);
+        }
+        if (afterTime == null) {
+            return list(selectPatientAppointments, patient, limit);
+        }
+        return listAfter(selectPatientAppointmentsAfter, patient, afterTime, afterId, limit);
+    }
+
+    // preferredCaregiver may be null to take the first free caregiver in username order, lease is null to take the
+    // dose from Vaccines rather than from a dose lease
+    public static Reservation reserve(String patient, Date d, String vaccine, String preferredCaregiver,
+                                      Integer lease) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().reserve(patient, d, null, null, vaccine, preferredCaregiver);
+        }
+        return Sql.query(reserveAppointment, statement -> {
+            statement.setDate(1, d);
+            statement.setString(2, vaccine);
+            statement.setString(3, patient);
+            statement.setString(4, preferredCaregiver);
+            statement.setObject(5, lease, Types.INTEGER);
+        }, AppointmentDao::readReservation);
+    }
+
+    // books the slot of the day, mask is the slot's bit as {SlotsAm, SlotsPm}
+    public static Reservation reserveSlot(String patient, Date d, int slot, long[] mask, String vaccine,
+                                          String preferredCaregiver, Integer lease) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().reserve(patient, d, slot, mask, vaccine, preferredCaregiver);
+        }
+        return Sql.query(reserveSlotAppointment, statement -> {
+            statement.setDate(1, d);
+            statement.setString(2, vaccine);
+            statement.setString(3, patient);
+            statement.setString(4, preferredCaregiver);
+            statement.setInt(5, slot);
+            statement.setLong(6, mask[0]);
+            statement.setLong(7, mask[1]);
+            statement.setObject(8, lease, Types.INTEGER);
+        }, AppointmentDao::readReservation);
+    }
+
+    // Only the patient or the caregiver of an appointment can cancel it, pass the one that is asking and null for
+    // the other. Cancels nothing if there is no such appointment of theirs.
+    public static Cancellation cancel(int id, String patient, String caregiver) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().cancel(id, patient, caregiver);
+        }
+        return Sql.query(cancelAppointment, statement -> {
+            statement.setInt(1, id);
+            statement.setString(2, patient);
+            statement.setString(3, caregiver);
+        }, AppointmentDao::readCancellation);
+    }
+
+    public static Cancellation cancelAll(String caregiver, Date from, Date to) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().cancelAll(caregiver, from, to);
+        }
+        return Sql.query(cancelCaregiverAppointments, statement -> {
+            statement.setString(1, caregiver);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+        }, AppointmentDao::readCancellation);
+    }
+
+    // inserts all the appointments as one JDBC batch, their IDs are ignored
+    public static int insertAll(Collection<Appointment> appointments) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().insertAppointments(appointments);
+        }
+        return Sql.batch(insertAppointment, appointments, (statement, appointment) -> {
+            statement.setString(1, appointment.getPatient());
+            statement.setString(2, appointment.getCaregiver());
+            statement.setString(3, appointment.getVaccine());
+            statement.setDate(4, appointment.getTime());
+        });
+    }
+
+    // number of appointments of each caregiver on or after the given date
+    public static Map<String, Integer> countByCaregiver(Date from) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().countByCaregiver(from);
+        }
+        return Sql.query(countCaregiverAppointments, statement -> statement.setDate(1, from), resultSet -> {
+            Map<String, Integer> counts = new HashMap<>();
+            while (resultSet.next()) {
+                counts.put(resultSet.getString("Caregiver"), resultSet.getInt("Appointments"));
+            }
+            return counts;
+        });
+    }
+
+    // streams every row of the table to the consumer
+    public static void forEach(Consumer<Appointment> consumer) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().forEachAppointment(consumer);
+            return;
+        }
+        Sql.query(selectAppointments, Sql.NO_PARAMETERS, resultSet -> {
+            while (resultSet.next()) {
+                int slot = resultSet.getInt("Slot");
+                consumer.accept(new Appointment(resultSet.getInt("ID"), resultSet.getString("Patient"),
+                        resultSet.getString("Caregiver"), resultSet.getString("Vaccine"), resultSet.getDate("Time"),
+                        resultSet.wasNull() ? null : slot));
+            }
+            return null;
+        });
+    }
+
+    private static List<Appointment> list(String sql, String username, int limit) throws SQLException {
+        return Sql.query(sql, statement -> {
+            statement.setInt(1, limit);
+            statement.setString(2, username);
+        }, AppointmentDao::readAppointments);
+    }
+
+    private static List<Appointment> listAfter(String sql, String username, Date afterTime, int afterId, int limit)
+            throws SQLException {
+        return Sql.query(sql, statement -> {
+            statement.setInt(1, limit);
+            statement.setString(2, username);
+            statement.setDate(3, afterTime);
+            statement.setDate(4, afterTime);
+            statement.setInt(5, afterId);
+        }, AppointmentDao::readAppointments);
+    }
+
+    private static Reservation readReservation(ResultSet resultSet) throws SQLException {
+        resultSet.next();
+        return new Reservation(resultSet.getInt("Status"), resultSet.getInt("ID"), resultSet.getString("Caregiver"));
+    }
+
+    private static List<Appointment> readAppointments(ResultSet resultSet) throws SQLException {
+        List<Appointment> appointments = new ArrayList<>();
+        while (resultSet.next()) {
+            appointments.add(readAppointment(resultSet));
+        }
+        return appointments;
+    }
+
+    private static Cancellation readCancellation(ResultSet resultSet) throws SQLException {
+        List<Appointment> appointments = new ArrayList<>();
+        Map<String, Integer> returnedDoses = new HashMap<>();
+        while (resultSet.next()) {
+            Appointment appointment = readAppointment(resultSet);
+            appointments.add(appointment);
+            if (resultSet.getBoolean("Returned")) {
+                returnedDoses.merge(appointment.getVaccine(), 1, Integer::sum);
+            }
+        }
+        return new Cancellation(appointments, returnedDoses);
+    }
+
+    private static Appointment readAppointment(ResultSet resultSet) throws SQLException {
+        int slot = resultSet.getInt("Slot");
+        return new Appointment(resultSet.getInt("ID"), resultSet.getString("Patient"),
+                resultSet.getString("Caregiver"), resultSet.getString("Vaccine"), resultSet.getDate("Time"),
+                resultSet.wasNull() ? null : slot);
+    }
+}
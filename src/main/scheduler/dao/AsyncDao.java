@@ -0,0 +1,77 @@
+package scheduler.dao;
+
+import scheduler.metrics.RoundTrips;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs independent reads of a command on worker threads, each over a pooled connection of its own, so they only see
+// committed data. Runs inline in local storage mode.
+public final class AsyncDao {
+
+    public interface Query<T> {
+        T run() throws SQLException;
+    }
+
+    public interface Action {
+        void run() throws SQLException;
+    }
+
+    // enough workers for a few commands' worth of concurrent reads, the pool size still bounds the connections
+    private static final ExecutorService workers =
+            Executors.newFixedThreadPool(Util.getIntEnv("AsyncReaders", 8), r -> {
+                Thread t = new Thread(r, "async-dao");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private AsyncDao() {
+    }
+
+    public static <T> CompletableFuture<T> supply(Query<T> query) {
+        if (LocalStore.isEnabled()) {
+            try {
+                return CompletableFuture.completedFuture(query.run());
+            } catch (SQLException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        AtomicLong roundTrips = RoundTrips.counter();
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicLong own = RoundTrips.countAgainst(roundTrips);
+            try {
+                return query.run();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            } finally {
+                RoundTrips.countAgainst(own);
+            }
+        }, workers);
+    }
+
+    public static CompletableFuture<Void> run(Action action) {
+        return supply(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // waits for the call and returns its result, throwing what it threw
+    public static <T> T join(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
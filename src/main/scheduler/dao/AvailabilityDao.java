@@ -0,0 +1,141 @@
+package scheduler.dao;
+
+import scheduler.db.UnitOfWork;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+// Queries on the Availabilities table
+public class AvailabilityDao {
+
+    private static final String insertAvailability = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
+    private static final String insertMissingAvailability = "INSERT INTO Availabilities (Time, Username) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM Availabilities WHERE Time = ? AND Username = ?)";
+    private static final String selectCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username";
+    private static final String selectAvailabilities = "SELECT Time, Username FROM Availabilities";
+    private static final String lockAvailabilities =
+            "SELECT Time, Username FROM Availabilities WITH (UPDLOCK, ROWLOCK) WHERE Time IN ";
+    private static final String deleteAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
+    private static final String deleteAvailabilityRange =
+            "DELETE FROM Availabilities WHERE Username = ? AND Time >= ? AND Time <= ?";
+
+    private AvailabilityDao() {
+    }
+
+    public static void insert(Date d, String username) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().insertAvailability(d, username);
+            return;
+        }
+        Sql.update(insertAvailability, statement -> {
+            statement.setDate(1, d);
+            statement.setString(2, username);
+        });
+    }
+
+    // Inserts all the dates as one JDBC batch in one transaction, skipping dates that are already there.
+    // Returns the number of dates that were newly added.
+    public static int insertAll(String username, Collection<Date> dates) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().insertAvailabilities(username, dates);
+        }
+        // outside of a unit of work, open one so that the batch still commits or fails as a whole
+        if (UnitOfWork.current() == null) {
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                int added = insertAll(username, dates);
+                unitOfWork.commit();
+                return added;
+            }
+        }
+        return Sql.batch(insertMissingAvailability, dates, (statement, d) -> {
+            statement.setDate(1, d);
+            statement.setString(2, username);
+            statement.setDate(3, d);
+            statement.setString(4, username);
+        });
+    }
+
+    // caregivers available on the date, in username order
+    public static List<String> getCaregivers(Date d) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getCaregivers(d);
+        }
+        return Sql.query(selectCaregivers, statement -> statement.setDate(1, d), resultSet -> {
+            List<String> caregivers = new ArrayList<>();
+            while (resultSet.next()) {
+                caregivers.add(resultSet.getString("Username"));
+            }
+            return caregivers;
+        });
+    }
+
+    // Streams the rows on the given dates to the consumer, in date and username order, and keeps them locked until
+    // the end of the unit of work so that no one else can book them in the meantime.
+    public static void lockAll(Collection<Date> dates, BiConsumer<Date, String> consumer) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().forEachAvailability(dates, consumer);
+            return;
+        }
+        for (List<Date> chunk : Sql.chunks(new ArrayList<>(new TreeSet<>(dates)))) {
+            String sql = lockAvailabilities + "(" + Sql.placeholders(chunk.size()) + ") ORDER BY Time, Username";
+            Sql.query(sql, statement -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setDate(i + 1, chunk.get(i));
+                }
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    consumer.accept(resultSet.getDate("Time"), resultSet.getString("Username"));
+                }
+                return null;
+            });
+        }
+    }
+
+    // Deletes the availability each appointment uses up, in one batch. Throws if any of them is already gone, in
+    // which case the unit of work has to be rolled back.
+    public static void deleteAll(Collection<Appointment> appointments) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().deleteAvailabilities(appointments);
+            return;
+        }
+        int deleted = Sql.batch(deleteAvailability, appointments, (statement, appointment) -> {
+            statement.setDate(1, appointment.getTime());
+            statement.setString(2, appointment.getCaregiver());
+        });
+        if (deleted != appointments.size()) {
+            throw new SQLException((appointments.size() - deleted) + " availabilities were no longer there");
+        }
+    }
+
+    // withdraws the caregiver's availability between the two dates, returns the number of days withdrawn
+    public static int deleteRange(String username, Date from, Date to) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().deleteAvailabilityRange(username, from, to);
+        }
+        return Sql.update(deleteAvailabilityRange, statement -> {
+            statement.setString(1, username);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+        });
+    }
+
+    // streams every row of the table to the consumer
+    public static void forEach(BiConsumer<Date, String> consumer) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().forEachAvailability(null, consumer);
+            return;
+        }
+        Sql.query(selectAvailabilities, Sql.NO_PARAMETERS, resultSet -> {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate("Time"), resultSet.getString("Username"));
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,26 @@
+package scheduler.dao;
+
+import scheduler.model.Appointment;
+
+import java.util.List;
+import java.util.Map;
+
+// outcome of cancelling appointments, see AppointmentDao.cancel and cancelAll
+public class Cancellation {
+    private final List<Appointment> appointments;
+    // doses given back to Vaccines per vaccine, which leaves out those that stayed with a dose lease
+    private final Map<String, Integer> returnedDoses;
+
+    Cancellation(List<Appointment> appointments, Map<String, Integer> returnedDoses) {
+        this.appointments = appointments;
+        this.returnedDoses = returnedDoses;
+    }
+
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+
+    public Map<String, Integer> getReturnedDoses() {
+        return returnedDoses;
+    }
+}
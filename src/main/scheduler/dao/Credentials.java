@@ -0,0 +1,26 @@
+package scheduler.dao;
+
+// the stored password hash of a patient or caregiver and what is needed to check a password against it
+public class Credentials {
+    private final byte[] salt;
+    private final byte[] hash;
+    private final int iterations;
+
+    public Credentials(byte[] salt, byte[] hash, int iterations) {
+        this.salt = salt;
+        this.hash = hash;
+        this.iterations = iterations;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+}
@@ -0,0 +1,26 @@
+package scheduler.dao;
+
+// a block of doses of one vaccine leased by a scheduler node, see DoseLeaseDao
+public class DoseLease {
+    private final int id;
+    private final String vaccine;
+    private final int granted;
+
+    DoseLease(int id, String vaccine, int granted) {
+        this.id = id;
+        this.vaccine = vaccine;
+        this.granted = granted;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public int getGranted() {
+        return granted;
+    }
+}
@@ -0,0 +1,106 @@
+package scheduler.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Queries on the DoseLeases table. A lease moves a block of doses out of the Vaccines row; releasing it gives back
+// the doses no appointment still uses. A lease that expires without renewal can be released by any node.
+public class DoseLeaseDao {
+
+    // Takes up to @size doses off the vaccine, as many as there are, and records them as a lease of the node.
+    // Returns the lease, or no row if the vaccine has no doses left.
+    private static final String acquireLease =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @node varchar(255) = ?, @vaccine varchar(255) = ?, @size int = ?, @ttl int = ?;\n" +
+            "DECLARE @granted TABLE (Granted int);\n" +
+            "UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses < @size THEN Doses ELSE @size END\n" +
+            "OUTPUT deleted.Doses - inserted.Doses INTO @granted\n" +
+            "WHERE Name = @vaccine AND Doses > 0;\n" +
+            "INSERT INTO DoseLeases (Node, Vaccine, Granted, Expires)\n" +
+            "OUTPUT inserted.ID, inserted.Granted\n" +
+            "SELECT @node, @vaccine, Granted, DATEADD(second, @ttl, SYSUTCDATETIME()) FROM @granted;";
+    private static final String renewLeases =
+            "UPDATE DoseLeases SET Expires = DATEADD(second, ?, SYSUTCDATETIME()) WHERE Node = ?";
+
+    // Deletes the leases picked by the condition and gives the doses they granted that are not used by an appointment
+    // back to Vaccines. Reservations hold a shared lock on the lease they book under until they commit, so the delete
+    // waits for them and the count includes their appointments. Returns the doses given back per vaccine.
+    private static final String releaseLeases =
+            "SET NOCOUNT ON;\n" +
+            "SET XACT_ABORT ON;\n" +
+            "DECLARE @released TABLE (ID int, Vaccine varchar(255), Granted int);\n" +
+            "DELETE FROM DoseLeases OUTPUT deleted.ID, deleted.Vaccine, deleted.Granted INTO @released\n" +
+            "WHERE %s;\n" +
+            "DECLARE @returned TABLE (Vaccine varchar(255), Doses int);\n" +
+            "INSERT INTO @returned (Vaccine, Doses)\n" +
+            "SELECT r.Vaccine, SUM(r.Granted - (SELECT COUNT(*) FROM Appointments a WITH (READCOMMITTEDLOCK)\n" +
+            "                                   WHERE a.Lease = r.ID))\n" +
+            "FROM @released r GROUP BY r.Vaccine;\n" +
+            "UPDATE v SET Doses = v.Doses + r.Doses FROM Vaccines v JOIN @returned r ON r.Vaccine = v.Name\n" +
+            "WHERE r.Doses > 0;\n" +
+            "SELECT Vaccine, Doses FROM @returned WHERE Doses > 0;";
+    private static final String releaseLease = String.format(releaseLeases, "ID = ?");
+    private static final String releaseNodeLeases = String.format(releaseLeases, "Node = ?");
+    private static final String releaseExpiredLeases = String.format(releaseLeases, "Expires < SYSUTCDATETIME()");
+
+    private DoseLeaseDao() {
+    }
+
+    // Leases up to size doses of the vaccine to the node for ttlSeconds. Returns null if the vaccine has no doses left.
+    public static DoseLease acquire(String node, String vaccine, int size, int ttlSeconds) throws SQLException {
+        checkStorage();
+        return Sql.query(acquireLease, statement -> {
+            statement.setString(1, node);
+            statement.setString(2, vaccine);
+            statement.setInt(3, size);
+            statement.setInt(4, ttlSeconds);
+        }, resultSet -> resultSet.next()
+                ? new DoseLease(resultSet.getInt("ID"), vaccine, resultSet.getInt("Granted"))
+                : null);
+    }
+
+    // pushes the expiry of every lease of the node ttlSeconds ahead, returns the number of leases still held
+    public static int renew(String node, int ttlSeconds) throws SQLException {
+        checkStorage();
+        return Sql.update(renewLeases, statement -> {
+            statement.setInt(1, ttlSeconds);
+            statement.setString(2, node);
+        });
+    }
+
+    // the release methods return the doses given back to each vaccine
+
+    public static Map<String, Integer> release(int leaseId) throws SQLException {
+        checkStorage();
+        return Sql.query(releaseLease, statement -> statement.setInt(1, leaseId), DoseLeaseDao::readReturned);
+    }
+
+    public static Map<String, Integer> releaseAll(String node) throws SQLException {
+        checkStorage();
+        return Sql.query(releaseNodeLeases, statement -> statement.setString(1, node), DoseLeaseDao::readReturned);
+    }
+
+    // releases the leases of any node that have not been renewed in time
+    public static Map<String, Integer> releaseExpired() throws SQLException {
+        checkStorage();
+        return Sql.query(releaseExpiredLeases, Sql.NO_PARAMETERS, DoseLeaseDao::readReturned);
+    }
+
+    private static Map<String, Integer> readReturned(ResultSet resultSet) throws SQLException {
+        Map<String, Integer> returned = new HashMap<>();
+        while (resultSet.next()) {
+            returned.put(resultSet.getString("Vaccine"), resultSet.getInt("Doses"));
+        }
+        return returned;
+    }
+
+    // a single local process has no other nodes to share the Vaccines row with
+    private static void checkStorage() throws SQLException {
+        if (LocalStore.isEnabled()) {
+            throw new SQLException("Dose leases are not supported in local storage mode");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package scheduler.dao;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// An append-only, memory-mapped log of committed transactions, one checksummed entry per transaction. Replay stops at
+// the first torn entry, and sync group commits: one caller forces the file for everyone who appended before it.
+class Journal implements AutoCloseable {
+
+    private static final int MAGIC = 0x56534a31; // "VSJ1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final long INITIAL_CAPACITY = 1L << 20;
+
+    private final FileChannel channel;
+    private final boolean force;
+
+    // guards the mapping and the write position
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private MappedByteBuffer buffer;
+    private long capacity;
+    private long position;
+
+    // guards the group commit state
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private long syncedPosition;
+    private boolean syncing = false;
+
+    // metrics
+    private long entries = 0;
+    private long syncs = 0;
+
+    // Opens the journal, creating it if it does not exist, and passes the payload of every intact entry to the
+    // replayer in order. With force off, entries are left for the operating system to write back, which survives
+    // a crash of the process but not of the machine.
+    Journal(Path path, boolean force, Consumer<byte[]> replayer) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.force = force;
+        this.capacity = Math.max(INITIAL_CAPACITY, channel.size());
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a scheduler journal of version " + VERSION);
+        }
+
+        long offset = HEADER_SIZE;
+        while (offset + ENTRY_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt((int) offset);
+            if (length <= 0 || offset + ENTRY_HEADER_SIZE + length > capacity) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get((int) offset + ENTRY_HEADER_SIZE, payload);
+            if (checksum(payload) != buffer.getInt((int) offset + 4)) {
+                break;
+            }
+            replayer.accept(payload);
+            entries++;
+            offset += ENTRY_HEADER_SIZE + length;
+        }
+        this.position = offset;
+        this.syncedPosition = offset;
+    }
+
+    // copies the entry into the journal and returns the position to pass to sync to make it durable
+    long append(byte[] payload) throws IOException {
+        appendLock.lock();
+        try {
+            long end = position + ENTRY_HEADER_SIZE + payload.length;
+            // keep room for the zero length that marks the end of the log
+            while (end + 4 > capacity) {
+                grow();
+            }
+            int offset = (int) position;
+            buffer.put(offset + ENTRY_HEADER_SIZE, payload);
+            buffer.putInt(offset + 4, checksum(payload));
+            buffer.putInt((int) end, 0);
+            // the length goes in last, so that until it is written the entry reads as the end of the log
+            buffer.putInt(offset, payload.length);
+            position = end;
+            entries++;
+            return end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // returns once everything up to the position is durable
+    void sync(long upTo) throws IOException {
+        if (!force) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            while (syncedPosition < upTo) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                // become the leader: force everything appended so far, on behalf of all the waiting committers
+                syncing = true;
+                syncLock.unlock();
+                long target;
+                try {
+                    MappedByteBuffer appended;
+                    appendLock.lock();
+                    try {
+                        target = position;
+                        appended = buffer;
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    // appends carry on while the file is forced; a remap in the meantime forces the old mapping
+                    // itself, so everything up to the target is covered either way
+                    appended.force();
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                syncedPosition = Math.max(syncedPosition, target);
+                syncs++;
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    long getEntries() {
+        appendLock.lock();
+        try {
+            return entries;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    long getSize() {
+        appendLock.lock();
+        try {
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    long getSyncs() {
+        syncLock.lock();
+        try {
+            return syncs;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // doubles the mapped size of the file, called with the append lock held
+    private void grow() throws IOException {
+        if (capacity * 2 > Integer.MAX_VALUE) {
+            throw new IOException("Journal is full");
+        }
+        buffer.force();
+        capacity *= 2;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
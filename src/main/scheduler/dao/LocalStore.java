@@ -0,0 +1,962 @@
+package scheduler.dao;
+
+import scheduler.db.UnitOfWork;
+import scheduler.model.Appointment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// The tables held in memory and made durable by a Journal, used instead of SQL Server when Storage=local.
+// JournalFile names the journal and JournalForce=false leaves flushing it to the OS. Changes are applied right away
+// and undone on rollback; a transaction holds the writer lock until it has been appended to the journal.
+public class LocalStore {
+
+    private static final boolean enabled = "local".equalsIgnoreCase(System.getenv("Storage"));
+    private static LocalStore instance = null;
+
+    private static final String PATIENTS = "Patients";
+    private static final String CAREGIVERS = "Caregivers";
+
+    private static final Comparator<Appointment> BY_TIME =
+            Comparator.comparing(Appointment::getTime).thenComparingInt(Appointment::getId);
+
+    private final Map<String, Map<String, Credentials>> users = new HashMap<>();
+    private final TreeMap<String, Integer> vaccines = new TreeMap<>();
+    private final TreeMap<Long, TreeSet<String>> availabilities = new TreeMap<>();
+    private final TreeMap<Long, TreeMap<String, long[]>> slots = new TreeMap<>();
+    private final TreeMap<Integer, Appointment> appointments = new TreeMap<>();
+    private final Map<String, TreeSet<Appointment>> appointmentsByPatient = new HashMap<>();
+    private final Map<String, TreeSet<Appointment>> appointmentsByCaregiver = new HashMap<>();
+    private int lastAppointmentId = 0;
+
+    private final Path path;
+    private final Journal journal;
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
+    // held by the transaction making changes, always taken before the monitor of the store
+    private final ReentrantLock writer = new ReentrantLock();
+
+    private LocalStore(Path path, boolean force) throws IOException {
+        users.put(PATIENTS, new HashMap<>());
+        users.put(CAREGIVERS, new HashMap<>());
+        this.path = path;
+        this.journal = new Journal(path, force, payload -> {
+            for (Change change : decode(payload)) {
+                change.apply(this);
+            }
+        });
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static synchronized LocalStore get() throws SQLException {
+        if (instance == null) {
+            String file = System.getenv("JournalFile");
+            boolean force = !"false".equalsIgnoreCase(System.getenv("JournalForce"));
+            try {
+                instance = new LocalStore(Path.of(file == null || file.isEmpty() ? "scheduler.journal" : file), force);
+            } catch (IOException e) {
+                throw new SQLException("Could not open the journal", e);
+            }
+            LocalStore opened = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    opened.journal.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close the journal: " + e);
+                }
+            }, "journal-close"));
+        }
+        return instance;
+    }
+
+    // a one line summary for the stats command
+    public static String describe() {
+        LocalStore store;
+        synchronized (LocalStore.class) {
+            store = instance;
+        }
+        if (store == null) {
+            return "LocalStore{not opened}";
+        }
+        return "LocalStore{journal=" + store.path +
+                ", entries=" + store.journal.getEntries() +
+                ", bytes=" + store.journal.getSize() +
+                ", syncs=" + store.journal.getSyncs() +
+                '}';
+    }
+
+    // Users
+
+    void insertUser(String table, String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        write(transaction -> {
+            if (users.get(table).containsKey(username)) {
+                throw new SQLException("Violation of PRIMARY KEY constraint, duplicate key in " + table + ": "
+                        + username);
+            }
+            transaction.record(new PutUser(table, username, new Credentials(salt, hash, iterations)));
+            return null;
+        });
+    }
+
+    synchronized boolean userExists(String table, String username) {
+        return users.get(table).containsKey(username);
+    }
+
+    synchronized Set<String> existingUsers(String table, Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        for (String username : usernames) {
+            if (users.get(table).containsKey(username)) {
+                existing.add(username);
+            }
+        }
+        return existing;
+    }
+
+    synchronized Credentials getCredentials(String table, String username) {
+        return users.get(table).get(username);
+    }
+
+    synchronized void forEachUser(String table, BiConsumer<String, Credentials> consumer) {
+        users.get(table).forEach(consumer);
+    }
+
+    void updateHash(String table, String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        write(transaction -> {
+            if (users.get(table).containsKey(username)) {
+                transaction.record(new PutUser(table, username, new Credentials(salt, hash, iterations)));
+            }
+            return null;
+        });
+    }
+
+    // Availabilities
+
+    void insertAvailability(Date d, String username) throws SQLException {
+        write(transaction -> {
+            requireCaregiver(username);
+            if (availabilities.getOrDefault(toEpochDay(d), new TreeSet<>()).contains(username)) {
+                throw new SQLException("Violation of PRIMARY KEY constraint, duplicate key in Availabilities: ("
+                        + d + ", " + username + ")");
+            }
+            transaction.record(new PutAvailability(toEpochDay(d), username));
+            return null;
+        });
+    }
+
+    int insertAvailabilities(String username, Collection<Date> dates) throws SQLException {
+        return write(transaction -> {
+            int added = 0;
+            requireCaregiver(username);
+            for (Date d : dates) {
+                if (!availabilities.getOrDefault(toEpochDay(d), new TreeSet<>()).contains(username)) {
+                    transaction.record(new PutAvailability(toEpochDay(d), username));
+                    added++;
+                }
+            }
+            return added;
+        });
+    }
+
+    synchronized List<String> getCaregivers(Date d) {
+        return new ArrayList<>(availabilities.getOrDefault(toEpochDay(d), new TreeSet<>()));
+    }
+
+    // rows in date and username order, only on the given dates if they are not null
+    synchronized void forEachAvailability(Collection<Date> dates, BiConsumer<Date, String> consumer) {
+        Set<Long> days = null;
+        if (dates != null) {
+            days = new HashSet<>();
+            for (Date d : dates) {
+                days.add(toEpochDay(d));
+            }
+        }
+        for (Map.Entry<Long, TreeSet<String>> day : availabilities.entrySet()) {
+            if (days == null || days.contains(day.getKey())) {
+                for (String username : day.getValue()) {
+                    consumer.accept(toDate(day.getKey()), username);
+                }
+            }
+        }
+    }
+
+    void deleteAvailabilities(Collection<Appointment> appointments) throws SQLException {
+        write(transaction -> {
+            for (Appointment appointment : appointments) {
+                long day = toEpochDay(appointment.getTime());
+                if (!availabilities.getOrDefault(day, new TreeSet<>()).contains(appointment.getCaregiver())) {
+                    throw new SQLException("Availability of " + appointment.getCaregiver() + " on "
+                            + appointment.getTime() + " is no longer there");
+                }
+            }
+            for (Appointment appointment : appointments) {
+                transaction.record(new DeleteAvailability(toEpochDay(appointment.getTime()),
+                        appointment.getCaregiver()));
+            }
+            return null;
+        });
+    }
+
+    int deleteAvailabilityRange(String username, Date from, Date to) throws SQLException {
+        return write(transaction -> {
+            int deleted = 0;
+            for (Map.Entry<Long, TreeSet<String>> day
+                    : new ArrayList<>(availabilities.subMap(toEpochDay(from), true, toEpochDay(to), true).entrySet())) {
+                if (day.getValue().contains(username)) {
+                    transaction.record(new DeleteAvailability(day.getKey(), username));
+                    deleted++;
+                }
+            }
+            return deleted;
+        });
+    }
+
+    // Vaccines
+
+    void insertVaccine(String name, int doses) throws SQLException {
+        write(transaction -> {
+            if (vaccines.containsKey(name)) {
+                throw new SQLException("Violation of PRIMARY KEY constraint, duplicate key in Vaccines: " + name);
+            }
+            transaction.record(new PutVaccine(name, doses));
+            return null;
+        });
+    }
+
+    void addDoses(String name, int num) throws SQLException {
+        write(transaction -> {
+            Integer doses = vaccines.get(name);
+            if (doses != null) {
+                transaction.record(new PutVaccine(name, doses + num));
+            }
+            return null;
+        });
+    }
+
+    boolean removeDoses(String name, int num) throws SQLException {
+        return write(transaction -> {
+            Integer doses = vaccines.get(name);
+            boolean removed = doses != null && doses >= num;
+            if (removed) {
+                transaction.record(new PutVaccine(name, doses - num));
+            }
+            return removed;
+        });
+    }
+
+    void removeDoses(Map<String, Integer> doses) throws SQLException {
+        write(transaction -> {
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                if (vaccines.getOrDefault(entry.getKey(), 0) < entry.getValue()) {
+                    throw new SQLException("Not enough available doses of " + entry.getKey());
+                }
+            }
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                transaction.record(new PutVaccine(entry.getKey(), vaccines.get(entry.getKey()) - entry.getValue()));
+            }
+            return null;
+        });
+    }
+
+    synchronized Integer getDoses(String name) {
+        return vaccines.get(name);
+    }
+
+    synchronized SortedMap<String, Integer> getVaccines(Collection<String> names) {
+        if (names == null) {
+            return new TreeMap<>(vaccines);
+        }
+        SortedMap<String, Integer> doses = new TreeMap<>();
+        for (String name : names) {
+            if (vaccines.containsKey(name)) {
+                doses.put(name, vaccines.get(name));
+            }
+        }
+        return doses;
+    }
+
+    // Slots
+
+    void addSlots(Date d, String username, long[] mask) throws SQLException {
+        write(transaction -> {
+            requireCaregiver(username);
+            long[] free = getSlots(toEpochDay(d), username);
+            transaction.record(new PutSlots(toEpochDay(d), username, free[0] | mask[0], free[1] | mask[1]));
+            return null;
+        });
+    }
+
+    int deleteSlotRange(String username, Date from, Date to) throws SQLException {
+        return write(transaction -> {
+            int deleted = 0;
+            for (Map.Entry<Long, TreeMap<String, long[]>> day
+                    : new ArrayList<>(slots.subMap(toEpochDay(from), true, toEpochDay(to), true).entrySet())) {
+                if (day.getValue().containsKey(username)) {
+                    transaction.record(new PutSlots(day.getKey(), username, 0, 0));
+                    deleted++;
+                }
+            }
+            return deleted;
+        });
+    }
+
+    synchronized void forEachSlots(SlotDao.RowConsumer consumer) {
+        for (Map.Entry<Long, TreeMap<String, long[]>> day : slots.entrySet()) {
+            for (Map.Entry<String, long[]> caregiver : day.getValue().entrySet()) {
+                consumer.accept(toDate(day.getKey()), caregiver.getKey(), caregiver.getValue().clone());
+            }
+        }
+    }
+
+    synchronized SortedMap<String, long[]> getSlots(Date d) {
+        SortedMap<String, long[]> copy = new TreeMap<>();
+        slots.getOrDefault(toEpochDay(d), new TreeMap<>())
+                .forEach((username, free) -> copy.put(username, free.clone()));
+        return copy;
+    }
+
+    // Appointments
+
+    synchronized List<Appointment> getAppointments(boolean ofCaregiver, String username, Date afterTime, int afterId,
+                                                   int limit) {
+        NavigableSet<Appointment> all = (ofCaregiver ? appointmentsByCaregiver : appointmentsByPatient)
+                .getOrDefault(username, new TreeSet<>(BY_TIME));
+        if (afterTime != null) {
+            // the cursor only needs its Time and ID to be ordered, the appointment itself may be gone
+            all = all.tailSet(new Appointment(afterId, null, null, null, afterTime), false);
+        }
+        List<Appointment> page = new ArrayList<>();
+        for (Appointment appointment : all) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(appointment);
+        }
+        return page;
+    }
+
+    synchronized void forEachAppointment(Consumer<Appointment> consumer) {
+        appointments.values().forEach(consumer);
+    }
+
+    Reservation reserve(String patient, Date d, Integer slot, long[] mask, String vaccine, String preferred)
+            throws SQLException {
+        return write(transaction -> {
+            long day = toEpochDay(d);
+            List<String> free = new ArrayList<>();
+            if (slot == null) {
+                free.addAll(availabilities.getOrDefault(day, new TreeSet<>()));
+            } else {
+                slots.getOrDefault(day, new TreeMap<>()).forEach((username, bits) -> {
+                    if ((bits[0] & mask[0]) != 0 || (bits[1] & mask[1]) != 0) {
+                        free.add(username);
+                    }
+                });
+            }
+            int status = (free.isEmpty() ? 1 : 0) | (vaccines.getOrDefault(vaccine, 0) > 0 ? 0 : 2);
+            if (status != 0) {
+                return new Reservation(status, 0, null);
+            }
+            if (!users.get(PATIENTS).containsKey(patient)) {
+                throw new SQLException("FOREIGN KEY constraint, no patient " + patient);
+            }
+            String caregiver = preferred != null && free.contains(preferred) ? preferred : free.get(0);
+            if (slot == null) {
+                transaction.record(new DeleteAvailability(day, caregiver));
+            } else {
+                long[] bits = getSlots(day, caregiver);
+                transaction.record(new PutSlots(day, caregiver, bits[0] & ~mask[0], bits[1] & ~mask[1]));
+            }
+            transaction.record(new PutVaccine(vaccine, vaccines.get(vaccine) - 1));
+            int id = lastAppointmentId + 1;
+            transaction.record(new PutAppointment(new Appointment(id, patient, caregiver, vaccine, d, slot)));
+            return new Reservation(0, id, caregiver);
+        });
+    }
+
+    Cancellation cancel(int id, String patient, String caregiver) throws SQLException {
+        return write(transaction -> {
+            Appointment cancelled = appointments.get(id);
+            if (cancelled == null || !(cancelled.getPatient().equals(patient)
+                    || cancelled.getCaregiver().equals(caregiver))) {
+                return new Cancellation(List.of(), Map.of());
+            }
+            transaction.record(new DeleteAppointment(id));
+            long day = toEpochDay(cancelled.getTime());
+            if (cancelled.getSlot() == null) {
+                transaction.record(new PutAvailability(day, cancelled.getCaregiver()));
+            } else {
+                long[] bits = getSlots(day, cancelled.getCaregiver());
+                int word = cancelled.getSlot() / 48;
+                bits[word] |= 1L << (cancelled.getSlot() % 48);
+                transaction.record(new PutSlots(day, cancelled.getCaregiver(), bits[0], bits[1]));
+            }
+            Integer doses = vaccines.get(cancelled.getVaccine());
+            if (doses == null) {
+                return new Cancellation(List.of(cancelled), Map.of());
+            }
+            transaction.record(new PutVaccine(cancelled.getVaccine(), doses + 1));
+            return new Cancellation(List.of(cancelled), Map.of(cancelled.getVaccine(), 1));
+        });
+    }
+
+    Cancellation cancelAll(String caregiver, Date from, Date to) throws SQLException {
+        return write(transaction -> {
+            List<Appointment> cancelled = new ArrayList<>();
+            for (Appointment appointment : appointmentsByCaregiver.getOrDefault(caregiver, new TreeSet<>(BY_TIME))) {
+                if (!appointment.getTime().before(from) && !appointment.getTime().after(to)) {
+                    cancelled.add(appointment);
+                }
+            }
+            Map<String, Integer> returned = new HashMap<>();
+            for (Appointment appointment : cancelled) {
+                transaction.record(new DeleteAppointment(appointment.getId()));
+                Integer doses = vaccines.get(appointment.getVaccine());
+                if (doses != null) {
+                    transaction.record(new PutVaccine(appointment.getVaccine(), doses + 1));
+                    returned.merge(appointment.getVaccine(), 1, Integer::sum);
+                }
+            }
+            return new Cancellation(cancelled, returned);
+        });
+    }
+
+    int insertAppointments(Collection<Appointment> inserted) throws SQLException {
+        return write(transaction -> {
+            for (Appointment appointment : inserted) {
+                transaction.record(new PutAppointment(new Appointment(lastAppointmentId + 1,
+                        appointment.getPatient(), appointment.getCaregiver(), appointment.getVaccine(),
+                        appointment.getTime(), appointment.getSlot())));
+            }
+            return inserted.size();
+        });
+    }
+
+    synchronized Map<String, Integer> countByCaregiver(Date from) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Appointment appointment : appointments.values()) {
+            if (!appointment.getTime().before(from)) {
+                counts.merge(appointment.getCaregiver(), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private void requireCaregiver(String username) throws SQLException {
+        if (!users.get(CAREGIVERS).containsKey(username)) {
+            throw new SQLException("FOREIGN KEY constraint, no caregiver " + username);
+        }
+    }
+
+    private long[] getSlots(long day, String username) {
+        long[] free = slots.getOrDefault(day, new TreeMap<>()).get(username);
+        return free == null ? new long[2] : free.clone();
+    }
+
+    private static long toEpochDay(Date d) {
+        return d.toLocalDate().toEpochDay();
+    }
+
+    private static Date toDate(long epochDay) {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    // Transactions
+
+    // the transaction of the unit of work on this thread, or one that commits on its own if there is none
+    private interface Write<T> {
+        T run(Transaction transaction) throws SQLException;
+    }
+
+    // Runs the changes in the transaction of the unit of work on the thread, or in one of their own that commits
+    // right away.
+    private <T> T write(Write<T> write) throws SQLException {
+        Transaction transaction = transaction();
+        if (!transaction.standalone) {
+            synchronized (this) {
+                return write.run(transaction);
+            }
+        }
+        boolean committed = false;
+        try {
+            T result;
+            synchronized (this) {
+                result = write.run(transaction);
+            }
+            transaction.commit();
+            committed = true;
+            return result;
+        } finally {
+            if (!committed) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    private Transaction transaction() {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork == null) {
+            Transaction transaction = new Transaction(true);
+            transaction.lock();
+            return transaction;
+        }
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new Transaction(false);
+            transaction.lock();
+            try {
+                unitOfWork.enlist(transaction);
+            } catch (RuntimeException e) {
+                transaction.unlock();
+                throw e;
+            }
+            transactions.set(transaction);
+        }
+        return transaction;
+    }
+
+    private class Transaction implements UnitOfWork.Participant {
+        private final boolean standalone;
+        private final List<Change> changes = new ArrayList<>();
+        private final List<Change> undo = new ArrayList<>();
+        private boolean locked = false;
+
+        private Transaction(boolean standalone) {
+            this.standalone = standalone;
+        }
+
+        // applies the change to the tables, called with the store locked
+        private void record(Change change) {
+            undo.add(change.apply(LocalStore.this));
+            changes.add(change);
+        }
+
+        private void lock() {
+            writer.lock();
+            locked = true;
+        }
+
+        private void unlock() {
+            if (locked) {
+                locked = false;
+                writer.unlock();
+            }
+        }
+
+        // Appends the changes while still holding the writer lock, so no later transaction gets ahead of them in the
+        // journal, and waits for them to be synced after letting go of it, so that others can share the sync.
+        @Override
+        public void commit() throws SQLException {
+            if (!standalone) {
+                transactions.remove();
+            }
+            long position;
+            try {
+                if (changes.isEmpty()) {
+                    return;
+                }
+                position = journal.append(encode(changes));
+            } catch (IOException e) {
+                undo();
+                throw new SQLException("Could not write the journal", e);
+            } finally {
+                undo.clear();
+                changes.clear();
+                unlock();
+            }
+            try {
+                journal.sync(position);
+            } catch (IOException e) {
+                // the entry is in the journal already and later transactions may have built on it
+                throw new SQLException("Could not sync the journal", e);
+            }
+        }
+
+        @Override
+        public void rollback() {
+            if (!standalone) {
+                transactions.remove();
+            }
+            try {
+                undo();
+            } finally {
+                unlock();
+            }
+        }
+
+        private void undo() {
+            synchronized (LocalStore.this) {
+                for (int i = undo.size() - 1; i >= 0; i--) {
+                    undo.get(i).apply(LocalStore.this);
+                }
+            }
+            undo.clear();
+            changes.clear();
+        }
+    }
+
+    // Journal entries
+
+    private static byte[] encode(List<Change> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(changes.size());
+            for (Change change : changes) {
+                out.writeByte(change.type());
+                change.write(out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Change> decode(byte[] payload) {
+        List<Change> changes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                changes.add(readChange(in));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return changes;
+    }
+
+    private static Change readChange(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case PutUser.TYPE:
+                return new PutUser(in.readUTF(), in.readUTF(),
+                        new Credentials(readBytes(in), readBytes(in), in.readInt()));
+            case DeleteUser.TYPE:
+                return new DeleteUser(in.readUTF(), in.readUTF());
+            case PutVaccine.TYPE:
+                return new PutVaccine(in.readUTF(), in.readInt());
+            case DeleteVaccine.TYPE:
+                return new DeleteVaccine(in.readUTF());
+            case PutAvailability.TYPE:
+                return new PutAvailability(in.readLong(), in.readUTF());
+            case DeleteAvailability.TYPE:
+                return new DeleteAvailability(in.readLong(), in.readUTF());
+            case PutSlots.TYPE:
+                return new PutSlots(in.readLong(), in.readUTF(), in.readLong(), in.readLong());
+            case PutAppointment.TYPE:
+                int id = in.readInt();
+                String patient = in.readUTF();
+                String caregiver = in.readUTF();
+                String vaccine = in.readUTF();
+                Date time = toDate(in.readLong());
+                int slot = in.readShort();
+                return new PutAppointment(new Appointment(id, patient, caregiver, vaccine, time,
+                        slot < 0 ? null : slot));
+            case DeleteAppointment.TYPE:
+                return new DeleteAppointment(in.readInt());
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // a change to one row of one table, as it is written to the journal
+    private interface Change {
+        int type();
+
+        void write(DataOutputStream out) throws IOException;
+
+        // applies the change and returns the change that undoes it
+        Change apply(LocalStore store);
+    }
+
+    private static class PutUser implements Change {
+        static final int TYPE = 1;
+        private final String table;
+        private final String username;
+        private final Credentials credentials;
+
+        PutUser(String table, String username, Credentials credentials) {
+            this.table = table;
+            this.username = username;
+            this.credentials = credentials;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeUTF(table);
+            out.writeUTF(username);
+            writeBytes(out, credentials.getSalt());
+            writeBytes(out, credentials.getHash());
+            out.writeInt(credentials.getIterations());
+        }
+
+        public Change apply(LocalStore store) {
+            Credentials previous = store.users.get(table).put(username, credentials);
+            return previous == null ? new DeleteUser(table, username) : new PutUser(table, username, previous);
+        }
+    }
+
+    private static class DeleteUser implements Change {
+        static final int TYPE = 2;
+        private final String table;
+        private final String username;
+
+        DeleteUser(String table, String username) {
+            this.table = table;
+            this.username = username;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeUTF(table);
+            out.writeUTF(username);
+        }
+
+        public Change apply(LocalStore store) {
+            Credentials previous = store.users.get(table).remove(username);
+            return previous == null ? this : new PutUser(table, username, previous);
+        }
+    }
+
+    private static class PutVaccine implements Change {
+        static final int TYPE = 3;
+        private final String name;
+        private final int doses;
+
+        PutVaccine(String name, int doses) {
+            this.name = name;
+            this.doses = doses;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(doses);
+        }
+
+        public Change apply(LocalStore store) {
+            Integer previous = store.vaccines.put(name, doses);
+            return previous == null ? new DeleteVaccine(name) : new PutVaccine(name, previous);
+        }
+    }
+
+    private static class DeleteVaccine implements Change {
+        static final int TYPE = 4;
+        private final String name;
+
+        DeleteVaccine(String name) {
+            this.name = name;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+        }
+
+        public Change apply(LocalStore store) {
+            Integer previous = store.vaccines.remove(name);
+            return previous == null ? this : new PutVaccine(name, previous);
+        }
+    }
+
+    private static class PutAvailability implements Change {
+        static final int TYPE = 5;
+        private final long day;
+        private final String username;
+
+        PutAvailability(long day, String username) {
+            this.day = day;
+            this.username = username;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeLong(day);
+            out.writeUTF(username);
+        }
+
+        public Change apply(LocalStore store) {
+            boolean added = store.availabilities.computeIfAbsent(day, d -> new TreeSet<>()).add(username);
+            return added ? new DeleteAvailability(day, username) : this;
+        }
+    }
+
+    private static class DeleteAvailability implements Change {
+        static final int TYPE = 6;
+        private final long day;
+        private final String username;
+
+        DeleteAvailability(long day, String username) {
+            this.day = day;
+            this.username = username;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeLong(day);
+            out.writeUTF(username);
+        }
+
+        public Change apply(LocalStore store) {
+            TreeSet<String> caregivers = store.availabilities.get(day);
+            if (caregivers == null || !caregivers.remove(username)) {
+                return this;
+            }
+            if (caregivers.isEmpty()) {
+                store.availabilities.remove(day);
+            }
+            return new PutAvailability(day, username);
+        }
+    }
+
+    // sets the free slots of a caregiver-day, no free slots at all removes the row
+    private static class PutSlots implements Change {
+        static final int TYPE = 7;
+        private final long day;
+        private final String username;
+        private final long am;
+        private final long pm;
+
+        PutSlots(long day, String username, long am, long pm) {
+            this.day = day;
+            this.username = username;
+            this.am = am;
+            this.pm = pm;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeLong(day);
+            out.writeUTF(username);
+            out.writeLong(am);
+            out.writeLong(pm);
+        }
+
+        public Change apply(LocalStore store) {
+            TreeMap<String, long[]> caregivers = store.slots.computeIfAbsent(day, d -> new TreeMap<>());
+            long[] previous = am == 0 && pm == 0
+                    ? caregivers.remove(username) : caregivers.put(username, new long[]{am, pm});
+            if (caregivers.isEmpty()) {
+                store.slots.remove(day);
+            }
+            return previous == null ? new PutSlots(day, username, 0, 0)
+                    : new PutSlots(day, username, previous[0], previous[1]);
+        }
+    }
+
+    private static class PutAppointment implements Change {
+        static final int TYPE = 8;
+        private final Appointment appointment;
+
+        PutAppointment(Appointment appointment) {
+            this.appointment = appointment;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(appointment.getId());
+            out.writeUTF(appointment.getPatient());
+            out.writeUTF(appointment.getCaregiver());
+            out.writeUTF(appointment.getVaccine());
+            out.writeLong(toEpochDay(appointment.getTime()));
+            out.writeShort(appointment.getSlot() == null ? -1 : appointment.getSlot());
+        }
+
+        public Change apply(LocalStore store) {
+            Change undo = new DeleteAppointment(appointment.getId()).apply(store);
+            store.appointments.put(appointment.getId(), appointment);
+            store.appointmentsByPatient.computeIfAbsent(appointment.getPatient(), p -> new TreeSet<>(BY_TIME))
+                    .add(appointment);
+            store.appointmentsByCaregiver.computeIfAbsent(appointment.getCaregiver(), c -> new TreeSet<>(BY_TIME))
+                    .add(appointment);
+            // IDs are never reused, like an identity column
+            store.lastAppointmentId = Math.max(store.lastAppointmentId, appointment.getId());
+            return undo instanceof DeleteAppointment ? new DeleteAppointment(appointment.getId()) : undo;
+        }
+    }
+
+    private static class DeleteAppointment implements Change {
+        static final int TYPE = 9;
+        private final int id;
+
+        DeleteAppointment(int id) {
+            this.id = id;
+        }
+
+        public int type() {
+            return TYPE;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(id);
+        }
+
+        public Change apply(LocalStore store) {
+            Appointment previous = store.appointments.remove(id);
+            if (previous == null) {
+                return this;
+            }
+            store.appointmentsByPatient.get(previous.getPatient()).remove(previous);
+            store.appointmentsByCaregiver.get(previous.getCaregiver()).remove(previous);
+            return new PutAppointment(previous);
+        }
+    }
+}
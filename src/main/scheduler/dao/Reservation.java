@@ -0,0 +1,27 @@
+package scheduler.dao;
+
+// outcome of one reservation attempt, see AppointmentDao.reserve
+public class Reservation {
+    // 0: booked, 1: no caregiver, 2: no doses, 3: neither, 4: lost a race with another booker
+    private final int status;
+    private final int appointmentId;
+    private final String caregiver;
+
+    Reservation(int status, int appointmentId, String caregiver) {
+        this.status = status;
+        this.appointmentId = appointmentId;
+        this.caregiver = caregiver;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+}
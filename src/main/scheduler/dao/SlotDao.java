@@ -0,0 +1,89 @@
+package scheduler.dao;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Queries on the SlotAvailabilities table, a row per caregiver and day with the free slots as two 48-bit bitmaps
+public class SlotDao {
+
+    // a row of the table, the slots as {SlotsAm, SlotsPm}
+    public interface RowConsumer {
+        void accept(Date time, String username, long[] slots);
+    }
+
+    // sets the slots in the caregiver's day, creating the row the first time
+    private static final String addSlots =
+            "SET NOCOUNT ON;\n" +
+            "DECLARE @time date = ?, @username varchar(255) = ?, @am bigint = ?, @pm bigint = ?;\n" +
+            "UPDATE SlotAvailabilities WITH (UPDLOCK, SERIALIZABLE)\n" +
+            "SET SlotsAm = SlotsAm | @am, SlotsPm = SlotsPm | @pm\n" +
+            "WHERE Time = @time AND Username = @username;\n" +
+            "IF @@ROWCOUNT = 0\n" +
+            "    INSERT INTO SlotAvailabilities (Time, Username, SlotsAm, SlotsPm)\n" +
+            "    VALUES (@time, @username, @am, @pm);";
+    private static final String selectSlots = "SELECT Time, Username, SlotsAm, SlotsPm FROM SlotAvailabilities";
+    private static final String selectDaySlots = "SELECT Username, SlotsAm, SlotsPm FROM SlotAvailabilities " +
+            "WHERE Time = ? AND (SlotsAm <> 0 OR SlotsPm <> 0) ORDER BY Username";
+    private static final String deleteSlotRange =
+            "DELETE FROM SlotAvailabilities WHERE Username = ? AND Time >= ? AND Time <= ?";
+
+    private SlotDao() {
+    }
+
+    public static void addSlots(Date d, String username, long[] mask) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().addSlots(d, username, mask);
+            return;
+        }
+        Sql.update(addSlots, statement -> {
+            statement.setDate(1, d);
+            statement.setString(2, username);
+            statement.setLong(3, mask[0]);
+            statement.setLong(4, mask[1]);
+        });
+    }
+
+    // withdraws every slot of the caregiver between the two dates, returns the number of days withdrawn
+    public static int deleteRange(String username, Date from, Date to) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().deleteSlotRange(username, from, to);
+        }
+        return Sql.update(deleteSlotRange, statement -> {
+            statement.setString(1, username);
+            statement.setDate(2, from);
+            statement.setDate(3, to);
+        });
+    }
+
+    // the free slots of every caregiver on the date that has any, in username order
+    public static SortedMap<String, long[]> getSlots(Date d) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getSlots(d);
+        }
+        return Sql.query(selectDaySlots, statement -> statement.setDate(1, d), resultSet -> {
+            SortedMap<String, long[]> slots = new TreeMap<>();
+            while (resultSet.next()) {
+                slots.put(resultSet.getString("Username"),
+                        new long[]{resultSet.getLong("SlotsAm"), resultSet.getLong("SlotsPm")});
+            }
+            return slots;
+        });
+    }
+
+    // streams every row of the table to the consumer
+    public static void forEach(RowConsumer consumer) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().forEachSlots(consumer);
+            return;
+        }
+        Sql.query(selectSlots, Sql.NO_PARAMETERS, resultSet -> {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getDate("Time"), resultSet.getString("Username"),
+                        new long[]{resultSet.getLong("SlotsAm"), resultSet.getLong("SlotsPm")});
+            }
+            return null;
+        });
+    }
+}
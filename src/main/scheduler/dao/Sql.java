@@ -0,0 +1,120 @@
+package scheduler.dao;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Resilience;
+import scheduler.db.UnitOfWork;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Runs statements for the DAOs on the unit of work's connection or a pooled one, through Resilience, and closes
+// everything when done. Only statements outside a unit of work are retried.
+final class Sql {
+
+    interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    interface RowBinder<T> {
+        void bind(PreparedStatement statement, T row) throws SQLException;
+    }
+
+    interface Reader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    private interface Execution<T> {
+        T run(PreparedStatement statement) throws SQLException;
+    }
+
+    static final Binder NO_PARAMETERS = statement -> {
+    };
+
+    // values bound per IN list, well below the 2100 parameters SQL Server allows per statement
+    static final int MAX_IN_LIST = 1000;
+
+    private Sql() {
+    }
+
+    static <T> T query(String sql, Binder binder, Reader<T> reader) throws SQLException {
+        return Resilience.call(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            try {
+                // only running the query is repeated, the reader may have passed rows on by the time reading fails
+                try (ResultSet resultSet = execute(cm, sql, binder, PreparedStatement::executeQuery)) {
+                    return reader.read(resultSet);
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    static int update(String sql, Binder binder) throws SQLException {
+        return Resilience.call(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            try {
+                return execute(cm, sql, binder, PreparedStatement::executeUpdate);
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    // "?, ?, ?" for an IN list of n values
+    static String placeholders(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+
+    // splits the values into consecutive chunks of at most MAX_IN_LIST
+    static <T> List<List<T>> chunks(List<T> values) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += MAX_IN_LIST) {
+            chunks.add(values.subList(from, Math.min(values.size(), from + MAX_IN_LIST)));
+        }
+        return chunks;
+    }
+
+    // runs the statement once per bound row as a single JDBC batch, returning the total update count. A failed
+    // batch is not run again, in autocommit mode some of its rows may already have been saved.
+    static <T> int batch(String sql, Iterable<T> rows, RowBinder<T> binder) throws SQLException {
+        return Resilience.call(() -> {
+            ConnectionManager cm = new ConnectionManager();
+            try {
+                cm.createConnection();
+                PreparedStatement statement = cm.prepareStatement(sql);
+                for (T row : rows) {
+                    binder.bind(statement, row);
+                    statement.addBatch();
+                }
+                int updated = 0;
+                for (int count : statement.executeBatch()) {
+                    if (count > 0) {
+                        updated += count;
+                    }
+                }
+                return updated;
+            } finally {
+                cm.closeConnection();
+            }
+        });
+    }
+
+    // Prepares, binds and runs the statement. Outside a unit of work a transient failure is retried, each time on
+    // a connection freshly borrowed from the pool, which weeds out the broken ones.
+    private static <T> T execute(ConnectionManager cm, String sql, Binder binder, Execution<T> execution)
+            throws SQLException {
+        Resilience.Call<T> attempt = () -> {
+            cm.closeConnection();
+            cm.createConnection();
+            PreparedStatement statement = cm.prepareStatement(sql);
+            binder.bind(statement);
+            return execution.run(statement);
+        };
+        return UnitOfWork.current() == null ? Resilience.retry(attempt) : attempt.run();
+    }
+}
@@ -0,0 +1,366 @@
+package scheduler.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// A point-in-time copy of the tables in one compact binary file with a CRC32, to warm the caches without reading
+// every row on start. A table is only served from the snapshot while its row count and checksum match the live one.
+public class TableSnapshot {
+
+    public static final String PATIENTS = "Patients";
+    public static final String CAREGIVERS = "Caregivers";
+    public static final String VACCINES = "Vaccines";
+    public static final String AVAILABILITIES = "Availabilities";
+    public static final String SLOT_AVAILABILITIES = "SlotAvailabilities";
+    public static final String APPOINTMENTS = "Appointments";
+
+    private static final List<String> TABLES =
+            List.of(PATIENTS, CAREGIVERS, VACCINES, AVAILABILITIES, SLOT_AVAILABILITIES, APPOINTMENTS);
+
+    private static final int MAGIC = 0x56535331; // "VSS1"
+    private static final int VERSION = 1;
+    // magic, version, created at, then rows, checksum, offset and length of the string pool and of each table
+    private static final int HEADER_SIZE = 16 + 16 * (TABLES.size() + 1);
+    private static final int AVAILABILITY_SIZE = 8;
+    private static final int SLOTS_SIZE = 24;
+    private static final int APPOINTMENT_SIZE = 22;
+
+    private static final String selectChecksums;
+
+    static {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < TABLES.size(); i++) {
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(i).append(" AS T, COUNT(*) AS Rows, CHECKSUM_AGG(BINARY_CHECKSUM(*)) ")
+                    .append("AS Checksum FROM ").append(TABLES.get(i));
+        }
+        selectChecksums = sql.append(" ORDER BY T").toString();
+    }
+
+    public interface UserConsumer {
+        void accept(String username, Credentials credentials);
+    }
+
+    public interface AvailabilityConsumer {
+        void accept(long epochDay, String username);
+    }
+
+    // the slots as {SlotsAm, SlotsPm}
+    public interface SlotConsumer {
+        void accept(long epochDay, String username, long[] slots);
+    }
+
+    // slot is -1 for an appointment that is not booked in a slot
+    public interface AppointmentConsumer {
+        void accept(int id, String patient, String caregiver, String vaccine, long epochDay, int slot);
+    }
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long createdAt;
+    private final String[] strings;
+    // per table: rows, checksum, offset, length
+    private final int[][] sections;
+    private final boolean[] current;
+
+    private TableSnapshot(Path path, ByteBuffer buffer, long createdAt, String[] strings, int[][] sections,
+                          boolean[] current) {
+        this.path = path;
+        this.buffer = buffer;
+        this.createdAt = createdAt;
+        this.strings = strings;
+        this.sections = sections;
+        this.current = current;
+    }
+
+    // Dumps every table into the file, replacing it. Throws if a table changed while it was being read, since the
+    // rows would then not match the checksum they are stored with.
+    public static void write(Path path) throws SQLException, IOException {
+        int[][] before = checksums();
+        Map<String, Integer> names = new HashMap<>();
+        Section pool = new Section();
+        Section[] tables = new Section[TABLES.size()];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new Section();
+        }
+
+        for (UserDao users : List.of(UserDao.PATIENTS, UserDao.CAREGIVERS)) {
+            Section section = tables[users == UserDao.PATIENTS ? 0 : 1];
+            users.forEach((username, credentials) -> {
+                section.writeInt(name(username, names, pool));
+                section.writeInt(credentials.getIterations());
+                section.writeBytes(credentials.getSalt());
+                section.writeBytes(credentials.getHash());
+            });
+        }
+        for (Map.Entry<String, Integer> vaccine : VaccineDao.getAll().entrySet()) {
+            tables[2].writeInt(name(vaccine.getKey(), names, pool));
+            tables[2].writeInt(vaccine.getValue());
+        }
+        AvailabilityDao.forEach((time, username) -> {
+            tables[3].writeInt((int) time.toLocalDate().toEpochDay());
+            tables[3].writeInt(name(username, names, pool));
+        });
+        SlotDao.forEach((time, username, slots) -> {
+            tables[4].writeInt((int) time.toLocalDate().toEpochDay());
+            tables[4].writeInt(name(username, names, pool));
+            tables[4].writeLong(slots[0]);
+            tables[4].writeLong(slots[1]);
+        });
+        AppointmentDao.forEach(appointment -> {
+            tables[5].writeInt(appointment.getId());
+            tables[5].writeInt(name(appointment.getPatient(), names, pool));
+            tables[5].writeInt(name(appointment.getCaregiver(), names, pool));
+            tables[5].writeInt(name(appointment.getVaccine(), names, pool));
+            tables[5].writeInt((int) appointment.getTime().toLocalDate().toEpochDay());
+            tables[5].writeShort(appointment.getSlot() == null ? -1 : appointment.getSlot());
+        });
+
+        if (!Arrays.deepEquals(before, checksums())) {
+            throw new SQLException("The tables changed while the snapshot was being taken");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        int offset = HEADER_SIZE;
+        header.putInt(names.size()).putInt(0).putInt(offset).putInt(pool.size());
+        offset += pool.size();
+        for (int i = 0; i < tables.length; i++) {
+            header.putInt(before[i][0]).putInt(before[i][1]).putInt(offset).putInt(tables[i].size());
+            offset += tables[i].size();
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            crc.update(header.array());
+            out.write(header.array());
+            pool.writeTo(out, crc);
+            for (Section table : tables) {
+                table.writeTo(out, crc);
+            }
+            out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the snapshot in the file and compares it with the live tables. Throws if the file is not an intact
+    // snapshot of this version.
+    public static TableSnapshot load(Path path) throws SQLException, IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + 4 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a snapshot");
+            }
+            // the mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " is not a snapshot of version " + VERSION);
+        }
+        int end = buffer.capacity() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(end));
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IOException(path + " is corrupt");
+        }
+
+        String[] strings = new String[buffer.getInt(16)];
+        int position = buffer.getInt(24);
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getShort(position) & 0xffff];
+            buffer.get(position + 2, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 2 + bytes.length;
+        }
+
+        int[][] sections = new int[TABLES.size()][4];
+        for (int i = 0; i < sections.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                sections[i][j] = buffer.getInt(32 + 16 * i + 4 * j);
+            }
+        }
+        int[][] live = checksums();
+        boolean[] current = new boolean[TABLES.size()];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = sections[i][0] == live[i][0] && sections[i][1] == live[i][1];
+        }
+        return new TableSnapshot(path, buffer, buffer.getLong(8), strings, sections, current);
+    }
+
+    // whether the table still has the rows it had when the snapshot was taken
+    public boolean isCurrent(String table) {
+        return current[TABLES.indexOf(table)];
+    }
+
+    public boolean isCurrent() {
+        for (boolean table : current) {
+            if (!table) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getRows(String table) {
+        return sections[TABLES.indexOf(table)][0];
+    }
+
+    // table is PATIENTS or CAREGIVERS
+    public void forEachUser(String table, UserConsumer consumer) {
+        int[] section = sections[TABLES.indexOf(table)];
+        int position = section[2];
+        while (position < section[2] + section[3]) {
+            String username = strings[buffer.getInt(position)];
+            int iterations = buffer.getInt(position + 4);
+            byte[] salt = new byte[buffer.getShort(position + 8) & 0xffff];
+            buffer.get(position + 10, salt);
+            position += 10 + salt.length;
+            byte[] hash = new byte[buffer.getShort(position) & 0xffff];
+            buffer.get(position + 2, hash);
+            position += 2 + hash.length;
+            consumer.accept(username, new Credentials(salt, hash, iterations));
+        }
+    }
+
+    public SortedMap<String, Integer> getVaccines() {
+        int[] section = sections[TABLES.indexOf(VACCINES)];
+        SortedMap<String, Integer> doses = new TreeMap<>();
+        for (int position = section[2]; position < section[2] + section[3]; position += 8) {
+            doses.put(strings[buffer.getInt(position)], buffer.getInt(position + 4));
+        }
+        return doses;
+    }
+
+    public void forEachAvailability(AvailabilityConsumer consumer) {
+        int[] section = sections[TABLES.indexOf(AVAILABILITIES)];
+        for (int position = section[2]; position < section[2] + section[3]; position += AVAILABILITY_SIZE) {
+            consumer.accept(buffer.getInt(position), strings[buffer.getInt(position + 4)]);
+        }
+    }
+
+    public void forEachSlots(SlotConsumer consumer) {
+        int[] section = sections[TABLES.indexOf(SLOT_AVAILABILITIES)];
+        for (int position = section[2]; position < section[2] + section[3]; position += SLOTS_SIZE) {
+            consumer.accept(buffer.getInt(position), strings[buffer.getInt(position + 4)],
+                    new long[]{buffer.getLong(position + 8), buffer.getLong(position + 16)});
+        }
+    }
+
+    public void forEachAppointment(AppointmentConsumer consumer) {
+        int[] section = sections[TABLES.indexOf(APPOINTMENTS)];
+        for (int position = section[2]; position < section[2] + section[3]; position += APPOINTMENT_SIZE) {
+            consumer.accept(buffer.getInt(position), strings[buffer.getInt(position + 4)],
+                    strings[buffer.getInt(position + 8)], strings[buffer.getInt(position + 12)],
+                    buffer.getInt(position + 16), buffer.getShort(position + 20));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder tables = new StringBuilder();
+        for (int i = 0; i < TABLES.size(); i++) {
+            tables.append(", ").append(TABLES.get(i)).append('=').append(sections[i][0])
+                    .append(current[i] ? "" : " (stale)");
+        }
+        return "TableSnapshot{file=" + path + ", bytes=" + buffer.capacity() + tables + '}';
+    }
+
+    // {rows, checksum} of every table, in TABLES order
+    private static int[][] checksums() throws SQLException {
+        return Sql.query(selectChecksums, Sql.NO_PARAMETERS, resultSet -> {
+            int[][] checksums = new int[TABLES.size()][];
+            for (int i = 0; i < checksums.length; i++) {
+                resultSet.next();
+                checksums[i] = new int[]{resultSet.getInt("Rows"), resultSet.getInt("Checksum")};
+            }
+            return checksums;
+        });
+    }
+
+    // the index of the name in the string pool, adding it the first time
+    private static int name(String name, Map<String, Integer> names, Section pool) {
+        Integer index = names.get(name);
+        if (index == null) {
+            index = names.size();
+            names.put(name, index);
+            pool.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return index;
+    }
+
+    // a section of the file being written, kept in memory until its offset is known
+    private static class Section {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private void writeInt(int v) {
+            try {
+                out.writeInt(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeShort(int v) {
+            try {
+                out.writeShort(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeLong(long v) {
+            try {
+                out.writeLong(v);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // a length of up to 65535 followed by the bytes
+        private void writeBytes(byte[] b) {
+            try {
+                out.writeShort(b.length);
+                out.write(b);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int size() {
+            return bytes.size();
+        }
+
+        private void writeTo(OutputStream to, CRC32 crc) throws IOException {
+            byte[] b = bytes.toByteArray();
+            crc.update(b);
+            to.write(b);
+        }
+    }
+}
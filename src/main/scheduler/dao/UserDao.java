@@ -0,0 +1,137 @@
+package scheduler.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+// Queries on the Patients and Caregivers tables, which share the same shape
+public class UserDao {
+
+    public static final UserDao PATIENTS = new UserDao("Patients");
+    public static final UserDao CAREGIVERS = new UserDao("Caregivers");
+
+    private final String table;
+    private final String insertUser;
+    private final String selectUsername;
+    private final String selectCredentials;
+    private final String updateHash;
+    private final String selectUsers;
+
+    private UserDao(String table) {
+        this.table = table;
+        this.insertUser = "INSERT INTO " + table + " (Username, Salt, Hash, Iterations) VALUES (?, ?, ?, ?)";
+        this.selectUsername = "SELECT 1 FROM " + table + " WHERE Username = ?";
+        this.selectCredentials = "SELECT Salt, Hash, Iterations FROM " + table + " WHERE Username = ?";
+        this.updateHash = "UPDATE " + table + " SET Salt = ?, Hash = ?, Iterations = ? WHERE Username = ?";
+        this.selectUsers = "SELECT Username, Salt, Hash, Iterations FROM " + table;
+    }
+
+    public void insert(String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().insertUser(table, username, salt, hash, iterations);
+            return;
+        }
+        Sql.update(insertUser, statement -> {
+            statement.setString(1, username);
+            statement.setBytes(2, salt);
+            statement.setBytes(3, hash);
+            statement.setInt(4, iterations);
+        });
+    }
+
+    // inserts all the users as one JDBC batch
+    public int insertAll(Map<String, Credentials> users) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            for (Map.Entry<String, Credentials> user : users.entrySet()) {
+                Credentials credentials = user.getValue();
+                LocalStore.get().insertUser(table, user.getKey(), credentials.getSalt(), credentials.getHash(),
+                        credentials.getIterations());
+            }
+            return users.size();
+        }
+        return Sql.batch(insertUser, users.entrySet(), (statement, user) -> {
+            statement.setString(1, user.getKey());
+            statement.setBytes(2, user.getValue().getSalt());
+            statement.setBytes(3, user.getValue().getHash());
+            statement.setInt(4, user.getValue().getIterations());
+        });
+    }
+
+    public boolean exists(String username) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().userExists(table, username);
+        }
+        return Sql.query(selectUsername, statement -> statement.setString(1, username), resultSet -> resultSet.next());
+    }
+
+    // the ones of the usernames that exist, looked up a chunk of usernames at a time
+    public Set<String> existing(Collection<String> usernames) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().existingUsers(table, usernames);
+        }
+        Set<String> existing = new HashSet<>();
+        for (List<String> chunk : Sql.chunks(new ArrayList<>(new LinkedHashSet<>(usernames)))) {
+            String sql = "SELECT Username FROM " + table + " WHERE Username IN (" + Sql.placeholders(chunk.size())
+                    + ")";
+            Sql.query(sql, statement -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString("Username"));
+                }
+                return null;
+            });
+        }
+        return existing;
+    }
+
+    // returns null if there is no such user
+    public Credentials getCredentials(String username) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getCredentials(table, username);
+        }
+        return Sql.query(selectCredentials, statement -> statement.setString(1, username), resultSet -> {
+            if (!resultSet.next()) {
+                return null;
+            }
+            return new Credentials(resultSet.getBytes("Salt"), resultSet.getBytes("Hash"),
+                    resultSet.getInt("Iterations"));
+        });
+    }
+
+    public void updateHash(String username, byte[] salt, byte[] hash, int iterations) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().updateHash(table, username, salt, hash, iterations);
+            return;
+        }
+        Sql.update(updateHash, statement -> {
+            statement.setBytes(1, salt);
+            statement.setBytes(2, hash);
+            statement.setInt(3, iterations);
+            statement.setString(4, username);
+        });
+    }
+
+    // streams every row of the table to the consumer
+    public void forEach(BiConsumer<String, Credentials> consumer) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().forEachUser(table, consumer);
+            return;
+        }
+        Sql.query(selectUsers, Sql.NO_PARAMETERS, resultSet -> {
+            while (resultSet.next()) {
+                consumer.accept(resultSet.getString("Username"), new Credentials(resultSet.getBytes("Salt"),
+                        resultSet.getBytes("Hash"), resultSet.getInt("Iterations")));
+            }
+            return null;
+        });
+    }
+}
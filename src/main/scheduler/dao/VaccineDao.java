@@ -0,0 +1,150 @@
+package scheduler.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Queries on the Vaccines table
+public class VaccineDao {
+
+    private static final String insertVaccine = "INSERT INTO Vaccines (Name, Doses) VALUES (?, ?)";
+    private static final String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
+    private static final String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?";
+    private static final String selectDoses = "SELECT Doses FROM Vaccines WHERE Name = ?";
+    private static final String selectVaccines = "SELECT Name, Doses FROM Vaccines ORDER BY Name";
+    private static final String lockVaccines =
+            "SELECT Name, Doses FROM Vaccines WITH (UPDLOCK, ROWLOCK) WHERE Name IN ";
+
+    private VaccineDao() {
+    }
+
+    public static void insert(String vaccineName, int doses) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().insertVaccine(vaccineName, doses);
+            return;
+        }
+        Sql.update(insertVaccine, statement -> {
+            statement.setString(1, vaccineName);
+            statement.setInt(2, doses);
+        });
+    }
+
+    // inserts all the vaccines as one JDBC batch
+    public static int insertAll(Map<String, Integer> doses) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+                LocalStore.get().insertVaccine(vaccine.getKey(), vaccine.getValue());
+            }
+            return doses.size();
+        }
+        return Sql.batch(insertVaccine, doses.entrySet(), (statement, vaccine) -> {
+            statement.setString(1, vaccine.getKey());
+            statement.setInt(2, vaccine.getValue());
+        });
+    }
+
+    public static void addDoses(String vaccineName, int num) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().addDoses(vaccineName, num);
+            return;
+        }
+        Sql.update(addDoses, statement -> {
+            statement.setInt(1, num);
+            statement.setString(2, vaccineName);
+        });
+    }
+
+    // adds the doses to every vaccine in one batch, vaccines that do not exist are left out
+    public static void addDoses(Map<String, Integer> doses) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            for (Map.Entry<String, Integer> vaccine : doses.entrySet()) {
+                LocalStore.get().addDoses(vaccine.getKey(), vaccine.getValue());
+            }
+            return;
+        }
+        Sql.batch(addDoses, doses.entrySet(), (statement, vaccine) -> {
+            statement.setInt(1, vaccine.getValue());
+            statement.setString(2, vaccine.getKey());
+        });
+    }
+
+    // only removes the doses while they are all still there, returns false otherwise
+    public static boolean removeDoses(String vaccineName, int num) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().removeDoses(vaccineName, num);
+        }
+        return Sql.update(removeDoses, statement -> {
+            statement.setInt(1, num);
+            statement.setString(2, vaccineName);
+            statement.setInt(3, num);
+        }) > 0;
+    }
+
+    // Removes the doses of every vaccine in one batch. Either all of them are removed or, if any vaccine is short,
+    // an exception is thrown and the unit of work has to be rolled back.
+    public static void removeDoses(Map<String, Integer> doses) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            LocalStore.get().removeDoses(doses);
+            return;
+        }
+        int removed = Sql.batch(removeDoses, doses.entrySet(), (statement, entry) -> {
+            statement.setInt(1, entry.getValue());
+            statement.setString(2, entry.getKey());
+            statement.setInt(3, entry.getValue());
+        });
+        if (removed != doses.size()) {
+            throw new SQLException("Not enough available doses for " + (doses.size() - removed) + " vaccine(s)");
+        }
+    }
+
+    // Doses of the named vaccines that exist, locked until the end of the unit of work so that they cannot change
+    // before the caller writes them back.
+    public static Map<String, Integer> lockDoses(Collection<String> vaccineNames) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getVaccines(vaccineNames);
+        }
+        Map<String, Integer> doses = new HashMap<>();
+        for (List<String> chunk : Sql.chunks(new ArrayList<>(new LinkedHashSet<>(vaccineNames)))) {
+            Sql.query(lockVaccines + "(" + Sql.placeholders(chunk.size()) + ")", statement -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setString(i + 1, chunk.get(i));
+                }
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+                }
+                return null;
+            });
+        }
+        return doses;
+    }
+
+    // returns null if there is no such vaccine
+    public static Integer getDoses(String vaccineName) throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getDoses(vaccineName);
+        }
+        return Sql.query(selectDoses, statement -> statement.setString(1, vaccineName),
+                resultSet -> resultSet.next() ? resultSet.getInt("Doses") : null);
+    }
+
+    // every vaccine and its doses, in name order
+    public static SortedMap<String, Integer> getAll() throws SQLException {
+        if (LocalStore.isEnabled()) {
+            return LocalStore.get().getVaccines(null);
+        }
+        return Sql.query(selectVaccines, Sql.NO_PARAMETERS, resultSet -> {
+            SortedMap<String, Integer> doses = new TreeMap<>();
+            while (resultSet.next()) {
+                doses.put(resultSet.getString("Name"), resultSet.getInt("Doses"));
+            }
+            return doses;
+        });
+    }
+}
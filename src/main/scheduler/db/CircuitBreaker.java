@@ -0,0 +1,92 @@
+package scheduler.db;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+// Fails database calls fast while the database looks unreachable: opens after a number of consecutive failures and
+// lets a single trial call through once the open period has passed.
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialRunning = false;
+
+    // metrics, guarded by this
+    private long opened = 0;
+    private long rejected = 0;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0 || openMillis < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker: threshold=" + failureThreshold
+                    + ", open=" + openMillis + " ms");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    // call before every database call, throws if the call should not be made
+    public synchronized void acquire() throws SQLException {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.HALF_OPEN && !trialRunning) {
+            trialRunning = true;
+            return;
+        }
+        rejected++;
+        throw new SQLTransientConnectionException("Database calls are failing, not trying again for up to "
+                + openMillis + " ms");
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+    }
+
+    public synchronized void onFailure(SQLException e) {
+        if (!Resilience.isDatabaseFailure(e)) {
+            onSuccess();
+            return;
+        }
+        failures++;
+        trialRunning = false;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                opened++;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", failures=" + failures +
+                ", threshold=" + failureThreshold +
+                ", openMs=" + openMillis +
+                ", opened=" + opened +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
@@ -1,41 +1,87 @@
 package scheduler.db;
 
+import scheduler.util.Util;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    // DBUrl points the scheduler at any other SQL Server instance, e.g. a local one for benchmarks
+    private static final String connectionUrl = System.getenv("DBUrl") != null ? System.getenv("DBUrl") :
+            "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // pool settings, can be overridden through environment variables
+    private static final int minPoolSize = Util.getIntEnv("PoolMinSize", 1);
+    private static final int maxPoolSize = Util.getIntEnv("PoolMaxSize", 8);
+    private static final long idleTimeoutMillis = Util.getLongEnv("PoolIdleTimeoutMs", 5 * 60 * 1000);
+    private static final long borrowTimeoutMillis = Util.getLongEnv("PoolBorrowTimeoutMs", 10 * 1000);
+    private static final int validationTimeoutSeconds = Util.getIntEnv("PoolValidationTimeoutSec", 2);
+    private static final long evictionIntervalMillis = Util.getLongEnv("PoolEvictionIntervalMs", 30 * 1000);
+    // longest a single statement may run before the driver cancels it, 0 to wait for as long as it takes
+    private static final int queryTimeoutSeconds = Math.max(0, Util.getIntEnv("QueryTimeoutSec", 30));
+    // longest opening a new physical connection may take
+    private static final int loginTimeoutSeconds = Math.max(0, Util.getIntEnv("LoginTimeoutSec", 10));
+
+    private static ConnectionPool pool = null;
 
     private Connection con = null;
+    // true if con belongs to the unit of work open on this thread, which is then responsible for releasing it
+    private boolean participating = false;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
-        }
     }
 
-    public Connection createConnection() {
-        try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // the unit of work's connection if one is open on this thread, otherwise one borrowed from the pool
+    public Connection createConnection() throws SQLException {
+        UnitOfWork unitOfWork = UnitOfWork.current();
+        if (unitOfWork != null) {
+            con = unitOfWork.getConnection();
+            participating = true;
+        } else {
+            con = getPool().borrow();
+            participating = false;
         }
         return con;
     }
 
+    // returns a prepared statement for the sql that is cached on the current connection, so it is only prepared
+    // once per physical connection. The statement must not be closed, but its result sets must be. Every use of
+    // the statement is bounded by the query timeout.
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (con == null) {
+            throw new SQLException("No database connection");
+        }
+        PreparedStatement statement = getPool().prepare(con, sql);
+        statement.setQueryTimeout(queryTimeoutSeconds);
+        return statement;
+    }
+
     public void closeConnection() {
-        try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (this.con != null && !participating) {
+            getPool().release(this.con);
+        }
+        this.con = null;
+        this.participating = false;
+    }
+
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
+            DriverManager.setLoginTimeout(loginTimeoutSeconds);
+            pool = new ConnectionPool(connectionUrl, userName, userPass, minPoolSize, maxPoolSize,
+                    idleTimeoutMillis, borrowTimeoutMillis, validationTimeoutSeconds, evictionIntervalMillis);
         }
+        return pool;
     }
 }
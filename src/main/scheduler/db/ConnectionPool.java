@@ -0,0 +1,353 @@
+package scheduler.db;
+
+import scheduler.metrics.RoundTrips;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded pool of JDBC connections, handed out most-recently-used first, validated before they are borrowed and
+// evicted once idle for too long.
+public class ConnectionPool {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // most recently returned connection is at the head of the deque
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Map<Connection, PooledConnection> borrowed = new IdentityHashMap<>();
+    private int total = 0;
+    private boolean closed = false;
+
+    private final ScheduledExecutorService evictor;
+
+    // metrics, guarded by lock
+    private long borrows = 0;
+    private long waits = 0;
+    private long timeouts = 0;
+    private long created = 0;
+    private long evicted = 0;
+    private long invalidated = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis, int validationTimeoutSeconds,
+                          long evictionIntervalMillis) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.evictor.scheduleWithFixedDelay(this::maintain, evictionIntervalMillis, evictionIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        boolean waited = false;
+        while (true) {
+            PooledConnection pc;
+            lock.lock();
+            try {
+                while (!closed && idle.isEmpty() && total >= maxSize) {
+                    if (remaining <= 0) {
+                        timeouts++;
+                        throw new SQLException("Timed out after " + borrowTimeoutMillis
+                                + " ms waiting for a database connection");
+                    }
+                    waited = true;
+                    remaining = available.awaitNanos(remaining);
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                pc = idle.pollFirst();
+                if (pc == null) {
+                    // reserve a slot, the physical connection is opened outside the lock
+                    total++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            } finally {
+                lock.unlock();
+            }
+
+            if (pc == null) {
+                pc = open();
+            } else if (!pc.isValid(validationTimeoutSeconds)) {
+                discard(pc, true);
+                continue;
+            }
+
+            long waitNanos = System.nanoTime() - start;
+            lock.lock();
+            try {
+                borrowed.put(pc.getConnection(), pc);
+                borrows++;
+                if (waited) {
+                    waits++;
+                }
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+            } finally {
+                lock.unlock();
+            }
+            return pc.getConnection();
+        }
+    }
+
+    // returns a cached prepared statement for a connection borrowed from this pool
+    public PreparedStatement prepare(Connection con, String sql) throws SQLException {
+        PooledConnection pc;
+        lock.lock();
+        try {
+            pc = borrowed.get(con);
+        } finally {
+            lock.unlock();
+        }
+        if (pc == null) {
+            throw new SQLException("Connection is not borrowed from this pool");
+        }
+        return pc.prepare(sql);
+    }
+
+    public void release(Connection con) {
+        PooledConnection pc;
+        lock.lock();
+        try {
+            pc = borrowed.remove(con);
+        } finally {
+            lock.unlock();
+        }
+        if (pc == null) {
+            return;
+        }
+        if (!pc.reset()) {
+            discard(pc, true);
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                total--;
+            } else {
+                pc.touch();
+                idle.addFirst(pc);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        pc.close();
+    }
+
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        evictor.shutdownNow();
+        for (PooledConnection pc : toClose) {
+            pc.close();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        try {
+            // tracked so that every statement run on a pooled connection counts as a round trip of its command
+            Connection con = RoundTrips.track(DriverManager.getConnection(url, user, password));
+            PooledConnection pc = new PooledConnection(con);
+            lock.lock();
+            try {
+                created++;
+            } finally {
+                lock.unlock();
+            }
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            lock.lock();
+            try {
+                total--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private void discard(PooledConnection pc, boolean invalid) {
+        lock.lock();
+        try {
+            total--;
+            if (invalid) {
+                invalidated++;
+            } else {
+                evicted++;
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        pc.close();
+    }
+
+    // evicts connections idle for longer than the idle timeout and tops the pool back up to its minimum size
+    private void maintain() {
+        List<PooledConnection> expired = new ArrayList<>();
+        int missing;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext() && total - expired.size() > minSize) {
+                PooledConnection pc = oldestFirst.next();
+                if (now - pc.getLastUsed() < idleTimeoutMillis) {
+                    break;
+                }
+                oldestFirst.remove();
+                expired.add(pc);
+            }
+            total -= expired.size();
+            evicted += expired.size();
+            missing = Math.max(0, minSize - total);
+            total += missing;
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : expired) {
+            pc.close();
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                PooledConnection pc = open();
+                lock.lock();
+                try {
+                    idle.addLast(pc);
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (SQLException | RuntimeException e) {
+                // open() already gave the slot back, try again on the next run
+                lock.lock();
+                try {
+                    total -= missing - i - 1;
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    // Metrics
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() {
+        lock.lock();
+        try {
+            return borrows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeouts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            double avgWaitMillis = borrows == 0 ? 0 : totalWaitNanos / 1e6 / borrows;
+            return "ConnectionPool{" +
+                    "total=" + total +
+                    ", idle=" + idle.size() +
+                    ", borrowed=" + borrowed.size() +
+                    ", min=" + minSize +
+                    ", max=" + maxSize +
+                    ", borrows=" + borrows +
+                    ", waits=" + waits +
+                    ", timeouts=" + timeouts +
+                    ", created=" + created +
+                    ", evicted=" + evicted +
+                    ", invalidated=" + invalidated +
+                    ", avgWaitMs=" + String.format("%.3f", avgWaitMillis) +
+                    ", maxWaitMs=" + String.format("%.3f", maxWaitNanos / 1e6) +
+                    '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+}
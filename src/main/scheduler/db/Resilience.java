@@ -0,0 +1,109 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Keeps database calls bounded while the database is having trouble: every statement goes through the circuit
+// breaker, and calls that are safe to repeat are retried on transient errors, at most DbRetries times.
+public final class Resilience {
+
+    public interface Call<T> {
+        T run() throws SQLException;
+    }
+
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    // SQL Server and Azure SQL errors for a database that is busy, moving, throttling or unreachable
+    private static final Set<Integer> UNAVAILABLE_ERRORS = Set.of(
+            4060, 4221, 40143, 40197, 40501, 40540, 40613, 49918, 49919, 49920, 10928, 10929, 10053, 10054, 10060,
+            233, 64);
+    // a deadlock victim, worth running again but no sign of trouble with the database
+    private static final int DEADLOCK = 1205;
+    // the driver's SQLState for a statement that ran into its query timeout
+    private static final String QUERY_TIMEOUT = "HY008";
+
+    private static final int retries = Math.max(0, Util.getIntEnv("DbRetries", 2));
+    private static final CircuitBreaker breaker = new CircuitBreaker(
+            Math.max(1, Util.getIntEnv("CircuitFailureThreshold", 5)),
+            Math.max(0, Util.getIntEnv("CircuitOpenMs", 10000)));
+
+    private Resilience() {
+    }
+
+    public static CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    // Runs the call through the circuit breaker. However many attempts it makes inside, it counts once for the
+    // circuit.
+    public static <T> T call(Call<T> call) throws SQLException {
+        breaker.acquire();
+        try {
+            T result = call.run();
+            breaker.onSuccess();
+            return result;
+        } catch (SQLException e) {
+            breaker.onFailure(e);
+            throw e;
+        } catch (RuntimeException e) {
+            // not the database's fault
+            breaker.onSuccess();
+            throw e;
+        }
+    }
+
+    // Runs the call, making it again on transient errors. Only for calls that are safe to repeat.
+    public static <T> T retry(Call<T> call) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.run();
+            } catch (SQLException e) {
+                if (!isTransient(e) || attempt > retries) {
+                    throw e;
+                }
+            }
+            backoff(attempt);
+        }
+    }
+
+    // true for errors that are likely to go away if the call is made again a little later
+    public static boolean isTransient(SQLException e) {
+        return isUnavailable(e) || e.getErrorCode() == DEADLOCK;
+    }
+
+    // true for errors that say the database is unreachable, overloaded or too slow, rather than that the call was
+    // wrong. These are what open the circuit.
+    public static boolean isDatabaseFailure(SQLException e) {
+        return isUnavailable(e) || isTimeout(e);
+    }
+
+    public static boolean isTimeout(SQLException e) {
+        return e instanceof SQLTimeoutException || QUERY_TIMEOUT.equals(e.getSQLState());
+    }
+
+    private static boolean isUnavailable(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next instanceof SQLTransientConnectionException || UNAVAILABLE_ERRORS.contains(next.getErrorCode())
+                    || (next.getSQLState() != null && next.getSQLState().startsWith("08"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying a database call", e);
+        }
+    }
+}
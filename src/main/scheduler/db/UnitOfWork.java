@@ -0,0 +1,171 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Groups the database work of one command into one connection and one transaction, bound to the thread that began
+// it. The connection is only borrowed once the first statement needs it.
+public class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    // A transactional resource other than the database connection that commits and rolls back with the unit of
+    // work. Participants commit before the connection; one whose commit fails has already undone its own changes.
+    public interface Participant {
+        void commit() throws SQLException;
+
+        void rollback();
+    }
+
+    private Connection con = null;
+    private boolean rollbackOnly = false;
+    private boolean completed = false;
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private final List<Runnable> afterCompletion = new ArrayList<>();
+    private final List<Participant> participants = new ArrayList<>();
+
+    private UnitOfWork() {
+    }
+
+    public static UnitOfWork begin() {
+        if (current.get() != null) {
+            throw new IllegalStateException("A unit of work is already open on this thread!");
+        }
+        UnitOfWork unitOfWork = new UnitOfWork();
+        current.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    public static UnitOfWork current() {
+        return current.get();
+    }
+
+    // marks the unit of work on this thread so that it is rolled back instead of committed
+    public static void setRollbackOnly() {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork != null) {
+            unitOfWork.rollbackOnly = true;
+        }
+    }
+
+    // runs the action once the unit of work on this thread has committed, or right away if there is none.
+    // This is how in-memory state is kept in step with the database without exposing uncommitted changes.
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null) {
+            action.run();
+        } else {
+            unitOfWork.afterCommit.add(action);
+        }
+    }
+
+    // runs the action once the unit of work on this thread has ended, whether it committed or rolled back, or right
+    // away if there is none. Used to give back in-process claims that only matter while the transaction is open.
+    public static void afterCompletion(Runnable action) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null) {
+            action.run();
+        } else {
+            unitOfWork.afterCompletion.add(action);
+        }
+    }
+
+    public void enlist(Participant participant) {
+        if (completed) {
+            throw new IllegalStateException("Unit of work has already completed!");
+        }
+        participants.add(participant);
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    Connection getConnection() throws SQLException {
+        if (completed) {
+            throw new IllegalStateException("Unit of work has already completed!");
+        }
+        if (con == null) {
+            // nothing has been done in the transaction yet, so a failed borrow can be tried again
+            Connection borrowed = Resilience.retry(ConnectionManager.getPool()::borrow);
+            try {
+                borrowed.setAutoCommit(false);
+            } catch (SQLException e) {
+                ConnectionManager.getPool().release(borrowed);
+                throw e;
+            }
+            con = borrowed;
+        }
+        return con;
+    }
+
+    public void commit() throws SQLException {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        if (rollbackOnly) {
+            rollbackParticipants(0);
+            if (con != null) {
+                con.rollback();
+            }
+            return;
+        }
+        for (int i = 0; i < participants.size(); i++) {
+            try {
+                participants.get(i).commit();
+            } catch (SQLException | RuntimeException e) {
+                rollbackParticipants(i + 1);
+                if (con != null) {
+                    con.rollback();
+                }
+                throw e;
+            }
+        }
+        if (con != null) {
+            con.commit();
+        }
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+    }
+
+    public void rollback() throws SQLException {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        rollbackParticipants(0);
+        if (con != null) {
+            con.rollback();
+        }
+    }
+
+    private void rollbackParticipants(int from) {
+        for (int i = participants.size() - 1; i >= from; i--) {
+            participants.get(i).rollback();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!completed) {
+                rollback();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (con != null) {
+                ConnectionManager.getPool().release(con);
+                con = null;
+            }
+            current.remove();
+            for (Runnable action : afterCompletion) {
+                action.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package scheduler.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of the per-command statistics, also published over JMX as scheduler:type=Command,name=<command>
+public class CommandMetrics {
+
+    private static final CommandMetrics instance = new CommandMetrics();
+
+    private final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+
+    private CommandMetrics() {
+    }
+
+    public static CommandMetrics getInstance() {
+        return instance;
+    }
+
+    public void record(String command, long nanos, boolean error, long roundTrips) {
+        commands.computeIfAbsent(command, this::register).record(nanos, error, roundTrips);
+    }
+
+    // statistics of every command run so far, by command name
+    public SortedMap<String, CommandStats> getCommands() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(commands));
+    }
+
+    private CommandStats register(String command) {
+        CommandStats stats = new CommandStats();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(stats, new ObjectName("scheduler:type=Command,name=" + ObjectName.quote(command)));
+        } catch (JMException e) {
+            System.err.println("Failed to publish statistics of " + command + " over JMX: " + e);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,62 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency, error and round-trip statistics of one scheduler command
+public class CommandStats implements CommandStatsMBean {
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos, boolean error, long roundTrips) {
+        latencies.record(nanos);
+        count.increment();
+        if (error) {
+            errors.increment();
+        }
+        this.roundTrips.add(roundTrips);
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latencies.percentile(0.50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latencies.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+}
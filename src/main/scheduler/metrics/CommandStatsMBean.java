@@ -0,0 +1,18 @@
+package scheduler.metrics;
+
+// JMX view of the statistics of one scheduler command
+public interface CommandStatsMBean {
+    long getCount();
+
+    long getErrors();
+
+    long getRoundTrips();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+}
@@ -0,0 +1,51 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram with four logarithmic buckets per power of two, accurate to about 20%
+class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(1, nanos / 1000)));
+    }
+
+    // latency in nanoseconds below which the given fraction of the recorded values fall
+    long percentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundMicros(i) * 1000;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) * 1000;
+    }
+
+    private static int bucketOf(long micros) {
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = exponent < 2 ? (int) (micros - (1L << exponent)) * SUB_BUCKETS >> exponent
+                : (int) ((micros >> (exponent - 2)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, exponent * SUB_BUCKETS + sub);
+    }
+
+    private static long upperBoundMicros(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << exponent) + (((sub + 1) * (1L << exponent)) / SUB_BUCKETS);
+    }
+}
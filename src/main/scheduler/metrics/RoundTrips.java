@@ -0,0 +1,85 @@
+package scheduler.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts the database round trips made by the current thread, through connections wrapped with track, or against
+// another thread's counter, see countAgainst.
+public class RoundTrips {
+
+    private static final ThreadLocal<AtomicLong> count = ThreadLocal.withInitial(AtomicLong::new);
+
+    private RoundTrips() {
+    }
+
+    public static void reset() {
+        count.get().set(0);
+    }
+
+    public static long get() {
+        return count.get().get();
+    }
+
+    public static void increment() {
+        count.get().incrementAndGet();
+    }
+
+    // the counter of the current thread
+    public static AtomicLong counter() {
+        return count.get();
+    }
+
+    // makes the current thread count against the given counter, returns the one it counted against before
+    public static AtomicLong countAgainst(AtomicLong counter) {
+        AtomicLong previous = count.get();
+        count.set(counter);
+        return previous;
+    }
+
+    public static Connection track(Connection con) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Counting(con));
+    }
+
+    private static class Counting implements InvocationHandler {
+        private final Object target;
+
+        private Counting(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute") || name.equals("commit") || name.equals("rollback")) {
+                increment();
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            // statements created through a tracked connection are tracked as well
+            if (result instanceof CallableStatement) {
+                return wrap(result, CallableStatement.class);
+            } else if (result instanceof PreparedStatement) {
+                return wrap(result, PreparedStatement.class);
+            } else if (result instanceof Statement) {
+                return wrap(result, Statement.class);
+            }
+            return result;
+        }
+
+        private static Object wrap(Object statement, Class<?> type) {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Counting(statement));
+        }
+    }
+}
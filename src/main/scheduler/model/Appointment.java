@@ -0,0 +1,51 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int id;
+    private final String patient;
+    private final String caregiver;
+    private final String vaccine;
+    private final Date time;
+    // slot of the day for slot bookings, null for whole-day bookings
+    private final Integer slot;
+
+    public Appointment(int id, String patient, String caregiver, String vaccine, Date time) {
+        this(id, patient, caregiver, vaccine, time, null);
+    }
+
+    public Appointment(int id, String patient, String caregiver, String vaccine, Date time, Integer slot) {
+        this.id = id;
+        this.patient = patient;
+        this.caregiver = caregiver;
+        this.vaccine = vaccine;
+        this.time = time;
+        this.slot = slot;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public Integer getSlot() {
+        return slot;
+    }
+}
@@ -1,26 +1,37 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.SlotIndex;
+import scheduler.dao.AvailabilityDao;
+import scheduler.dao.Credentials;
+import scheduler.dao.SlotDao;
+import scheduler.dao.UserDao;
+import scheduler.db.UnitOfWork;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -36,38 +47,59 @@ public class Caregiver {
         return hash;
     }
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public int getIterations() {
+        return iterations;
+    }
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
+    public void saveToDB() throws SQLException {
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            UserDao.CAREGIVERS.insert(this.username, this.salt, this.hash, this.iterations);
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to save caregiver " + username, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
     public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        try {
+            AvailabilityDao.insert(d, this.username);
+            UnitOfWork.afterCommit(() -> AvailabilityIndex.getInstance().add(AvailabilityIndex.toEpochDay(d), username));
+        } catch (SQLException e) {
+            throw new SQLException("Failed to upload availability of " + username,
+                    e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+    // Uploads availability for all the dates as one JDBC batch in one transaction. Dates that were already uploaded
+    // are skipped rather than failing the batch. Returns the number of dates that were newly added.
+    public int uploadAvailability(Collection<Date> dates) throws SQLException {
+        SortedSet<Date> distinct = new TreeSet<>(dates);
+        if (distinct.isEmpty()) {
+            return 0;
+        }
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
+            int added = AvailabilityDao.insertAll(this.username, distinct);
+            UnitOfWork.afterCommit(() -> {
+                AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+                for (Date d : distinct) {
+                    availabilityIndex.add(AvailabilityIndex.toEpochDay(d), username);
+                }
+            });
+            return added;
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to upload availability of " + username,
+                    e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    // Makes the slots from fromSlot, inclusive, to toSlot, exclusive, of the day available. Slots that were already
+    // available stay so.
+    public void uploadSlots(Date d, int fromSlot, int toSlot) throws SQLException {
+        long[] mask = SlotIndex.mask(fromSlot, toSlot);
+        try {
+            SlotDao.addSlots(d, this.username, mask);
+            UnitOfWork.afterCommit(() -> SlotIndex.getInstance().add(AvailabilityIndex.toEpochDay(d), username, mask));
+        } catch (SQLException e) {
+            throw new SQLException("Failed to upload slots of " + username, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -75,11 +107,17 @@ public class Caregiver {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int iterations;
 
         public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, Util.getHashIterations());
+        }
+
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, int iterations) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.iterations = iterations;
         }
 
         public Caregiver build() {
@@ -92,6 +130,7 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,34 +138,33 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
+                Credentials credentials = UserDao.CAREGIVERS.getCredentials(this.username);
+                if (credentials == null) {
+                    return null;
+                }
+                byte[] salt = credentials.getSalt();
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                byte[] hash = Util.trim(credentials.getHash());
+                int iterations = credentials.getIterations();
+                // check if the password matches, using the cost the hash was stored with
+                if (!Util.verifyHash(password, salt, hash, iterations)) {
+                    return null;
+                }
+                // the configured cost went up since this hash was stored, rehash while we have the password
+                if (iterations < Util.getHashIterations()) {
+                    salt = Util.generateSalt();
+                    iterations = Util.getHashIterations();
+                    hash = Util.generateHash(password, salt, iterations);
+                    UserDao.CAREGIVERS.updateHash(this.username, salt, hash, iterations);
                 }
-                return null;
+                this.salt = salt;
+                this.hash = hash;
+                this.iterations = iterations;
+                return new Caregiver(this);
             } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+                throw new SQLException("Failed to get caregiver " + username, e.getSQLState(), e.getErrorCode(), e);
             }
         }
     }
@@ -1,26 +1,29 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.dao.Credentials;
+import scheduler.dao.UserDao;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
 
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    private final int iterations;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.iterations = builder.iterations;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.iterations = getter.iterations;
     }
 
     // Getters
@@ -36,21 +39,15 @@ public class Patient {
         return hash;
     }
 
-    public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    public int getIterations() {
+        return iterations;
+    }
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
+    public void saveToDB() throws SQLException {
         try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            UserDao.PATIENTS.insert(this.username, this.salt, this.hash, this.iterations);
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to save patient " + username, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -58,11 +55,17 @@ public class Patient {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final int iterations;
 
         public PatientBuilder(String username, byte[] salt, byte[] hash) {
+            this(username, salt, hash, Util.getHashIterations());
+        }
+
+        public PatientBuilder(String username, byte[] salt, byte[] hash, int iterations) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.iterations = iterations;
         }
 
         public Patient build() {
@@ -75,6 +78,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private int iterations;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -82,34 +86,33 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
+                Credentials credentials = UserDao.PATIENTS.getCredentials(this.username);
+                if (credentials == null) {
+                    return null;
+                }
+                byte[] salt = credentials.getSalt();
+                // we need to call Util.trim() to get rid of the paddings,
+                // try to remove the use of Util.trim() and you'll see :)
+                byte[] hash = Util.trim(credentials.getHash());
+                int iterations = credentials.getIterations();
+                // check if the password matches, using the cost the hash was stored with
+                if (!Util.verifyHash(password, salt, hash, iterations)) {
+                    return null;
+                }
+                // the configured cost went up since this hash was stored, rehash while we have the password
+                if (iterations < Util.getHashIterations()) {
+                    salt = Util.generateSalt();
+                    iterations = Util.getHashIterations();
+                    hash = Util.generateHash(password, salt, iterations);
+                    UserDao.PATIENTS.updateHash(this.username, salt, hash, iterations);
                 }
-                return null;
+                this.salt = salt;
+                this.hash = hash;
+                this.iterations = iterations;
+                return new Patient(this);
             } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+                throw new SQLException("Failed to get patient " + username, e.getSQLState(), e.getErrorCode(), e);
             }
         }
     }
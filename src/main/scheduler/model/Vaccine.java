@@ -1,10 +1,9 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.VaccineDao;
+import scheduler.db.UnitOfWork;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
@@ -29,19 +28,12 @@ public class Vaccine {
     public int getAvailableDoses() { return availableDoses; }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            VaccineDao.insert(this.vaccineName, this.availableDoses);
+            int doses = this.availableDoses;
+            UnitOfWork.afterCommit(() -> VaccineCatalog.getInstance().adjust(vaccineName, doses));
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to save vaccine " + vaccineName, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -52,19 +44,12 @@ public class Vaccine {
         }
         this.availableDoses += num;
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        // add on the server, the count we hold may come from the catalog cache and be slightly out of date
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            VaccineDao.addDoses(this.vaccineName, num);
+            UnitOfWork.afterCommit(() -> VaccineCatalog.getInstance().adjust(vaccineName, num));
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to add doses of " + vaccineName, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -73,21 +58,20 @@ public class Vaccine {
         if (this.availableDoses - num < 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        // only decrement while the doses are still there, another booker may have taken them since we read the row
+        boolean removed;
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            removed = VaccineDao.removeDoses(this.vaccineName, num);
+            if (removed) {
+                UnitOfWork.afterCommit(() -> VaccineCatalog.getInstance().adjust(vaccineName, -num));
+            }
         } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            throw new SQLException("Failed to remove doses of " + vaccineName, e.getSQLState(), e.getErrorCode(), e);
         }
+        if (!removed) {
+            throw new IllegalArgumentException("Not enough available doses!");
+        }
+        this.availableDoses -= num;
     }
 
     @Override
@@ -121,23 +105,21 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            VaccineCatalog.Snapshot catalog = VaccineCatalog.getInstance().peek();
+            if (catalog != null && catalog.contains(this.vaccineName)) {
+                this.availableDoses = catalog.getDoses(this.vaccineName);
+                return new Vaccine(this);
+            }
 
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
+                Integer doses = VaccineDao.getDoses(this.vaccineName);
+                if (doses == null) {
+                    return null;
                 }
-                return null;
+                this.availableDoses = doses;
+                return new Vaccine(this);
             } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
+                throw new SQLException("Failed to get vaccine " + vaccineName, e.getSQLState(), e.getErrorCode(), e);
             }
         }
     }
@@ -0,0 +1,102 @@
+package scheduler.service;
+
+import scheduler.cache.CaregiverLoad;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// the built-in assignment strategies, selected by name with the AssignmentStrategy environment variable
+public final class AssignmentStrategies {
+
+    public static final String FIRST = "first";
+    public static final String LEAST_LOADED = "least_loaded";
+    public static final String ROUND_ROBIN = "round_robin";
+    public static final String RANDOM = "random";
+
+    private AssignmentStrategies() {
+    }
+
+    public static AssignmentStrategy fromEnvironment() {
+        String name = System.getenv("AssignmentStrategy");
+        if (name == null || name.isEmpty()) {
+            return forName(LEAST_LOADED);
+        }
+        try {
+            return forName(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ", using " + LEAST_LOADED);
+            return forName(LEAST_LOADED);
+        }
+    }
+
+    public static AssignmentStrategy forName(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case FIRST:
+                return new First();
+            case LEAST_LOADED:
+                return new LeastLoaded(CaregiverLoad.getInstance());
+            case ROUND_ROBIN:
+                return new RoundRobin();
+            case RANDOM:
+                return new Random();
+            default:
+                throw new IllegalArgumentException("Unknown assignment strategy: " + name);
+        }
+    }
+
+    // the caregiver first in username order, as reserve always used to do
+    static class First implements AssignmentStrategy {
+        @Override
+        public String choose(long epochDay, List<String> candidates) {
+            return candidates.get(0);
+        }
+    }
+
+    // the caregiver with the fewest upcoming appointments, ties broken at random so that concurrent bookers spread
+    static class LeastLoaded implements AssignmentStrategy {
+        private final CaregiverLoad load;
+
+        LeastLoaded(CaregiverLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public String choose(long epochDay, List<String> candidates) {
+            String chosen = null;
+            int min = Integer.MAX_VALUE;
+            int ties = 0;
+            for (String candidate : candidates) {
+                int appointments = load.get(candidate);
+                if (appointments < min) {
+                    chosen = candidate;
+                    min = appointments;
+                    ties = 1;
+                } else if (appointments == min && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                    chosen = candidate;
+                }
+            }
+            return chosen;
+        }
+    }
+
+    // cycles through the free caregivers of each day
+    static class RoundRobin implements AssignmentStrategy {
+        private final ConcurrentHashMap<Long, AtomicInteger> next = new ConcurrentHashMap<>();
+
+        @Override
+        public String choose(long epochDay, List<String> candidates) {
+            int turn = next.computeIfAbsent(epochDay, day -> new AtomicInteger()).getAndIncrement();
+            return candidates.get(Math.floorMod(turn, candidates.size()));
+        }
+    }
+
+    static class Random implements AssignmentStrategy {
+        @Override
+        public String choose(long epochDay, List<String> candidates) {
+            return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package scheduler.service;
+
+import java.util.List;
+
+// decides which of the free caregivers of a day a new reservation should go to
+public interface AssignmentStrategy {
+
+    // candidates is never empty and is in username order; returns one of them
+    String choose(long epochDay, List<String> candidates);
+}
@@ -0,0 +1,226 @@
+package scheduler.service;
+
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.Credentials;
+import scheduler.dao.UserDao;
+import scheduler.dao.VaccineDao;
+import scheduler.db.UnitOfWork;
+import scheduler.util.Util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+// Creates patients, caregivers or vaccines in bulk from a CSV file: taken names are found a thousand at a time, and
+// each batch is hashed in parallel while the previous one is inserted. A failed batch is retried line by line.
+public class BulkImporter {
+
+    public static final int BATCH_SIZE = 1000;
+
+    private static final Pattern STRONG_PASSWORD =
+            Pattern.compile("^(?=.*?[A-Z])(?=.*?[a-z])(?=.*?[0-9])(?=.*?[!@#?]).{8,}$");
+
+    public static class Line {
+        private final long number;
+        private final String text;
+
+        public Line(long number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    public static class Rejected {
+        private final Line line;
+        private final String reason;
+
+        private Rejected(Line line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public Line getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    public static class Result {
+        private final int imported;
+        private final List<Rejected> rejected;
+
+        private Result(int imported, List<Rejected> rejected) {
+            this.imported = imported;
+            this.rejected = rejected;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        // in line order
+        public List<Rejected> getRejected() {
+            return rejected;
+        }
+    }
+
+    // a line that passed the checks, with its hash once it is computed
+    private static class Pending {
+        private final Line line;
+        private final String name;
+        private final String password;
+        private Credentials credentials;
+
+        private Pending(Line line, String name, String password) {
+            this.line = line;
+            this.name = name;
+            this.password = password;
+        }
+    }
+
+    // Imports <username>,<password> lines into the table of the given users. The batches commit in transactions of
+    // their own, independently of the unit of work of the calling thread.
+    public Result importUsers(UserDao users, List<Line> lines) throws SQLException {
+        List<Rejected> rejected = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Pending> pending = new LinkedHashMap<>();
+        for (Line line : lines) {
+            String[] fields = line.getText().split(",", -1);
+            if (fields.length != 2 || fields[0].trim().isEmpty()) {
+                rejected.add(new Rejected(line, "expected <username>,<password>"));
+            } else if (!STRONG_PASSWORD.matcher(fields[1].trim()).find()) {
+                rejected.add(new Rejected(line, "password is not strong enough"));
+            } else if (pending.containsKey(fields[0].trim())) {
+                rejected.add(new Rejected(line, "username repeats line " + pending.get(fields[0].trim()).line.number));
+            } else {
+                pending.put(fields[0].trim(), new Pending(line, fields[0].trim(), fields[1].trim()));
+            }
+        }
+        Set<String> taken = users.existing(pending.keySet());
+        List<Pending> accepted = new ArrayList<>();
+        for (Pending user : pending.values()) {
+            if (taken.contains(user.name)) {
+                rejected.add(new Rejected(user.line, "username taken"));
+            } else {
+                accepted.add(user);
+            }
+        }
+
+        // hash the next batch while the previous one is being inserted
+        AtomicInteger imported = new AtomicInteger();
+        ExecutorService inserter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "user-import");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+            for (int from = 0; from < accepted.size(); from += BATCH_SIZE) {
+                List<Pending> batch = accepted.subList(from, Math.min(accepted.size(), from + BATCH_SIZE));
+                batch.parallelStream().forEach(user -> {
+                    byte[] salt = Util.generateSalt();
+                    user.credentials = new Credentials(salt, Util.generateHash(user.password, salt),
+                            Util.getHashIterations());
+                });
+                previous.join();
+                previous = CompletableFuture.runAsync(() -> insert(users, batch, imported, rejected), inserter);
+            }
+            previous.join();
+        } catch (CompletionException e) {
+            throw new SQLException("Import failed", e.getCause());
+        } finally {
+            inserter.shutdown();
+        }
+        return result(imported.get(), rejected);
+    }
+
+    // Imports <vaccine>,<doses> lines, creating the vaccines that do not exist yet and adding the doses to the ones
+    // that do, in the unit of work of this thread. The vaccine catalog is updated once it commits.
+    public Result importVaccines(List<Line> lines) throws SQLException {
+        List<Rejected> rejected = new ArrayList<>();
+        Map<String, Integer> doses = new LinkedHashMap<>();
+        Map<String, Line> firstLine = new HashMap<>();
+        for (Line line : lines) {
+            String[] fields = line.getText().split(",", -1);
+            String name = fields[0].trim();
+            Integer number = null;
+            if (fields.length == 2) {
+                try {
+                    number = Integer.parseInt(fields[1].trim());
+                } catch (NumberFormatException e) {
+                    // rejected below
+                }
+            }
+            if (name.isEmpty() || number == null || number <= 0) {
+                rejected.add(new Rejected(line, "expected <vaccine>,<positive number of doses>"));
+            } else if (doses.containsKey(name)) {
+                rejected.add(new Rejected(line, "vaccine repeats line " + firstLine.get(name).number));
+            } else {
+                doses.put(name, number);
+                firstLine.put(name, line);
+            }
+        }
+
+        Set<String> existing = VaccineDao.lockDoses(doses.keySet()).keySet();
+        Map<String, Integer> created = new LinkedHashMap<>();
+        Map<String, Integer> added = new LinkedHashMap<>();
+        doses.forEach((name, number) -> (existing.contains(name) ? added : created).put(name, number));
+        VaccineDao.insertAll(created);
+        VaccineDao.addDoses(added);
+        UnitOfWork.afterCommit(() -> doses.forEach(VaccineCatalog.getInstance()::adjust));
+        return result(doses.size(), rejected);
+    }
+
+    // inserts the batch in a transaction of its own, falling back to one user at a time if the batch fails
+    private static void insert(UserDao users, List<Pending> batch, AtomicInteger imported, List<Rejected> rejected) {
+        Map<String, Credentials> credentials = new LinkedHashMap<>();
+        for (Pending user : batch) {
+            credentials.put(user.name, user.credentials);
+        }
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            users.insertAll(credentials);
+            unitOfWork.commit();
+            imported.addAndGet(batch.size());
+            return;
+        } catch (SQLException e) {
+            // someone else took one of the usernames in the meantime, or one of the rows is bad
+        }
+        for (Pending user : batch) {
+            try {
+                users.insert(user.name, user.credentials.getSalt(), user.credentials.getHash(),
+                        user.credentials.getIterations());
+                imported.incrementAndGet();
+            } catch (SQLException e) {
+                rejected.add(new Rejected(user.line, "could not be saved: " + e.getMessage()));
+            }
+        }
+    }
+
+    private static Result result(int imported, List<Rejected> rejected) {
+        List<Rejected> sorted = new ArrayList<>(rejected);
+        sorted.sort(Comparator.comparingLong(r -> r.line.number));
+        return new Result(imported, sorted);
+    }
+}
@@ -0,0 +1,204 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.AvailabilityDao;
+import scheduler.dao.UserDao;
+import scheduler.dao.VaccineDao;
+import scheduler.db.UnitOfWork;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Books a whole queue of reservations at once: availabilities and doses are locked up front, matched in memory in
+// queue order to the least busy caregiver, and written back as three JDBC batches in one transaction.
+public class BulkMatcher {
+
+    public static class Request {
+        private final String patient;
+        private final String vaccine;
+        private final List<Date> dates;
+
+        // dates are the acceptable dates, most preferred first
+        public Request(String patient, String vaccine, List<Date> dates) {
+            this.patient = patient;
+            this.vaccine = vaccine;
+            this.dates = dates;
+        }
+
+        public String getPatient() {
+            return patient;
+        }
+
+        public String getVaccine() {
+            return vaccine;
+        }
+
+        public List<Date> getDates() {
+            return dates;
+        }
+    }
+
+    public static class Unplaced {
+        private final int index;
+        private final String reason;
+
+        private Unplaced(int index, String reason) {
+            this.index = index;
+            this.reason = reason;
+        }
+
+        // position of the request in the queue
+        public int getIndex() {
+            return index;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    public static class Result {
+        private final List<Appointment> booked;
+        private final List<Unplaced> unplaced;
+
+        private Result(List<Appointment> booked, List<Unplaced> unplaced) {
+            this.booked = booked;
+            this.unplaced = unplaced;
+        }
+
+        // the booked appointments, without their IDs
+        public List<Appointment> getBooked() {
+            return booked;
+        }
+
+        public List<Unplaced> getUnplaced() {
+            return unplaced;
+        }
+    }
+
+    // a caregiver free on some date, ordered by the appointment count it had when it was queued
+    private static class Candidate {
+        private final String caregiver;
+        private final int load;
+
+        private Candidate(String caregiver, int load) {
+            this.caregiver = caregiver;
+            this.load = load;
+        }
+    }
+
+    private static final Comparator<Candidate> LEAST_LOADED =
+            Comparator.<Candidate>comparingInt(c -> c.load).thenComparing(c -> c.caregiver);
+
+    // Matches the requests and writes the bookings in the unit of work of this thread, or in one of its own if there
+    // is none. The caches are only updated once the bookings commit.
+    public Result match(List<Request> requests) throws SQLException {
+        if (UnitOfWork.current() == null) {
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                Result result = match(requests);
+                unitOfWork.commit();
+                return result;
+            }
+        }
+
+        Set<String> patients = new HashSet<>();
+        Set<String> vaccines = new HashSet<>();
+        Set<Date> dates = new HashSet<>();
+        for (Request request : requests) {
+            patients.add(request.getPatient());
+            vaccines.add(request.getVaccine());
+            dates.addAll(request.getDates());
+        }
+
+        Set<String> knownPatients = UserDao.PATIENTS.existing(patients);
+        Map<String, Integer> doses = VaccineDao.lockDoses(vaccines);
+        Map<String, Integer> load = new HashMap<>();
+        Map<Date, PriorityQueue<Candidate>> free = new HashMap<>();
+        AvailabilityDao.lockAll(dates, (d, caregiver) -> {
+            int appointments = load.computeIfAbsent(caregiver, CaregiverLoad.getInstance()::get);
+            free.computeIfAbsent(d, day -> new PriorityQueue<>(LEAST_LOADED))
+                    .add(new Candidate(caregiver, appointments));
+        });
+
+        List<Appointment> booked = new ArrayList<>();
+        List<Unplaced> unplaced = new ArrayList<>();
+        Map<String, Integer> used = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            Request request = requests.get(i);
+            if (!knownPatients.contains(request.getPatient())) {
+                unplaced.add(new Unplaced(i, "unknown patient"));
+                continue;
+            }
+            Integer left = doses.get(request.getVaccine());
+            if (left == null) {
+                unplaced.add(new Unplaced(i, "unknown vaccine"));
+                continue;
+            }
+            if (left <= 0) {
+                unplaced.add(new Unplaced(i, "not enough available doses"));
+                continue;
+            }
+            Appointment appointment = null;
+            for (Date d : request.getDates()) {
+                String caregiver = takeLeastLoaded(free.get(d), load);
+                if (caregiver != null) {
+                    appointment = new Appointment(0, request.getPatient(), caregiver, request.getVaccine(), d);
+                    break;
+                }
+            }
+            if (appointment == null) {
+                unplaced.add(new Unplaced(i, "no caregiver is available on the requested dates"));
+                continue;
+            }
+            booked.add(appointment);
+            doses.put(request.getVaccine(), left - 1);
+            used.merge(request.getVaccine(), 1, Integer::sum);
+            load.merge(appointment.getCaregiver(), 1, Integer::sum);
+        }
+
+        if (!booked.isEmpty()) {
+            AvailabilityDao.deleteAll(booked);
+            VaccineDao.removeDoses(used);
+            AppointmentDao.insertAll(booked);
+            UnitOfWork.afterCommit(() -> {
+                for (Appointment appointment : booked) {
+                    AvailabilityIndex.getInstance().remove(AvailabilityIndex.toEpochDay(appointment.getTime()),
+                            appointment.getCaregiver());
+                    CaregiverLoad.getInstance().adjust(appointment.getCaregiver(), 1);
+                }
+                used.forEach((vaccine, num) -> VaccineCatalog.getInstance().adjust(vaccine, -num));
+            });
+        }
+        return new Result(Collections.unmodifiableList(booked), Collections.unmodifiableList(unplaced));
+    }
+
+    // Takes the caregiver with the fewest appointments off the queue. Counts only ever go up while matching, so a
+    // candidate queued with an outdated count is simply queued again with the current one.
+    private static String takeLeastLoaded(PriorityQueue<Candidate> candidates, Map<String, Integer> load) {
+        if (candidates == null) {
+            return null;
+        }
+        Candidate candidate;
+        while ((candidate = candidates.poll()) != null) {
+            int appointments = load.get(candidate.caregiver);
+            if (appointments == candidate.load) {
+                return candidate.caregiver;
+            }
+            candidates.add(new Candidate(candidate.caregiver, appointments));
+        }
+        return null;
+    }
+}
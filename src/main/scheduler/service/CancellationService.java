@@ -0,0 +1,81 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.SlotIndex;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.AvailabilityDao;
+import scheduler.dao.Cancellation;
+import scheduler.dao.SlotDao;
+import scheduler.db.UnitOfWork;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+
+// Cancels appointments and gives back what they used up, keeping the caches in step once the cancellation commits
+public class CancellationService {
+
+    public static class RangeResult {
+        private final List<Appointment> cancelled;
+        private final int withdrawn;
+
+        private RangeResult(List<Appointment> cancelled, int withdrawn) {
+            this.cancelled = cancelled;
+            this.withdrawn = withdrawn;
+        }
+
+        public List<Appointment> getCancelled() {
+            return cancelled;
+        }
+
+        // number of days of availability taken back from the caregiver
+        public int getWithdrawn() {
+            return withdrawn;
+        }
+    }
+
+    // Cancels one appointment of the patient or of the caregiver, whichever is not null. The caregiver gets the day
+    // or the slot back and the dose is returned. Returns null if they have no such appointment.
+    public Appointment cancel(int appointmentId, String patient, String caregiver) throws SQLException {
+        Cancellation cancellation = AppointmentDao.cancel(appointmentId, patient, caregiver);
+        if (cancellation.getAppointments().isEmpty()) {
+            return null;
+        }
+        Appointment cancelled = cancellation.getAppointments().get(0);
+        long epochDay = AvailabilityIndex.toEpochDay(cancelled.getTime());
+        UnitOfWork.afterCommit(() -> {
+            if (cancelled.getSlot() == null) {
+                AvailabilityIndex.getInstance().add(epochDay, cancelled.getCaregiver());
+            } else {
+                SlotIndex.getInstance().add(epochDay, cancelled.getCaregiver(),
+                        SlotIndex.mask(cancelled.getSlot(), cancelled.getSlot() + 1));
+            }
+            // a dose that stayed with its lease is not back in Vaccines
+            cancellation.getReturnedDoses().forEach(VaccineCatalog.getInstance()::adjust);
+            CaregiverLoad.getInstance().adjust(cancelled.getCaregiver(), -1);
+        });
+        return cancelled;
+    }
+
+    // Cancels every appointment of the caregiver between the two dates and returns their doses, for when the
+    // caregiver cannot work those days. Their availability and slots on those days are withdrawn too, so nothing new
+    // is booked.
+    public RangeResult cancelAll(String caregiver, Date from, Date to) throws SQLException {
+        Cancellation cancellation = AppointmentDao.cancelAll(caregiver, from, to);
+        List<Appointment> cancelled = cancellation.getAppointments();
+        int withdrawn = AvailabilityDao.deleteRange(caregiver, from, to) + SlotDao.deleteRange(caregiver, from, to);
+
+        long fromEpochDay = AvailabilityIndex.toEpochDay(from);
+        long toEpochDay = AvailabilityIndex.toEpochDay(to);
+        UnitOfWork.afterCommit(() -> {
+            AvailabilityIndex.getInstance().removeAll(caregiver, fromEpochDay, toEpochDay);
+            SlotIndex.getInstance().removeAll(caregiver, fromEpochDay, toEpochDay);
+            cancellation.getReturnedDoses().forEach(VaccineCatalog.getInstance()::adjust);
+            CaregiverLoad.getInstance().adjust(caregiver, -cancelled.size());
+        });
+        return new RangeResult(cancelled, withdrawn);
+    }
+}
@@ -0,0 +1,205 @@
+package scheduler.service;
+
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AsyncDao;
+import scheduler.dao.DoseLease;
+import scheduler.dao.DoseLeaseDao;
+import scheduler.dao.LocalStore;
+import scheduler.db.UnitOfWork;
+import scheduler.util.Util;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out doses from blocks of DoseLeaseSize leased by this node, so reservations do not all write the same
+// Vaccines row. A heartbeat renews the leases, releases idle ones and sweeps the expired ones of other nodes.
+public class DoseLeaseManager {
+
+    private static final int DEFAULT_TTL_SECONDS = 300;
+
+    private static class Lease {
+        private final DoseLease lease;
+        private final AtomicInteger remaining;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Lease(DoseLease lease) {
+            this.lease = lease;
+            this.remaining = new AtomicInteger(lease.getGranted());
+        }
+
+        private boolean tryTake() {
+            for (int left = remaining.get(); left > 0; left = remaining.get()) {
+                if (remaining.compareAndSet(left, left - 1)) {
+                    lastUsed = System.currentTimeMillis();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final String node;
+    private final int size;
+    private final int ttlSeconds;
+    // the lease each vaccine is currently booked under
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    // the vaccines a new block is being leased for, so that only one block of each is leased at a time
+    private final Set<String> acquiring = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService heartbeat = null;
+
+    // a size of 0 turns leasing off
+    public DoseLeaseManager(String node, int size, int ttlSeconds) {
+        this.node = node;
+        this.size = size;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    // DoseLeaseSize doses per lease for DoseLeaseTtlSec seconds, leased by NodeName or else by the process name.
+    // Leasing stays off in local storage mode, where this process is the only one booking.
+    public static DoseLeaseManager fromEnvironment() {
+        String node = System.getenv("NodeName");
+        if (node == null || node.isEmpty()) {
+            node = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        int size = LocalStore.isEnabled() ? 0 : Math.max(0, Util.getIntEnv("DoseLeaseSize", 0));
+        int ttlSeconds = Math.max(3, Util.getIntEnv("DoseLeaseTtlSec", DEFAULT_TTL_SECONDS));
+        return new DoseLeaseManager(node, size, ttlSeconds);
+    }
+
+    public boolean isEnabled() {
+        return size > 0;
+    }
+
+    // starts the heartbeat and has every lease of this node released when the process exits
+    public synchronized void start() {
+        if (!isEnabled() || heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-lease-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, ttlSeconds / 3);
+        heartbeat.scheduleWithFixedDelay(this::beat, interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::releaseAll, "dose-lease-release"));
+    }
+
+    // Takes a dose of the vaccine from the lease of this node. Returns the ID of the lease the dose was taken from,
+    // or null if leasing is off or there is no dose left in the lease, in which case the reservation takes its dose
+    // from Vaccines as usual and a new block is leased for the ones after it.
+    public Integer take(String vaccine) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Lease current = leases.get(vaccine);
+        if (current != null && current.tryTake()) {
+            return current.lease.getId();
+        }
+        acquireLater(vaccine, current);
+        return null;
+    }
+
+    // puts back a dose taken from the lease by a reservation that did not book it
+    public void giveBack(String vaccine, int leaseId) {
+        Lease current = leases.get(vaccine);
+        if (current != null && current.lease.getId() == leaseId) {
+            current.remaining.incrementAndGet();
+        }
+        // otherwise the lease is being released, and the dose is counted as unused there
+    }
+
+    // forgets a lease the database no longer has, because it expired and another node released it
+    public void lost(String vaccine, int leaseId) {
+        leases.computeIfPresent(vaccine, (name, current) -> current.lease.getId() == leaseId ? null : current);
+    }
+
+    // doses of the vaccine left in the lease of this node
+    public int getRemaining(String vaccine) {
+        Lease current = leases.get(vaccine);
+        return current == null ? 0 : Math.max(0, current.remaining.get());
+    }
+
+    // gives every unused dose of this node back to Vaccines
+    public void releaseAll() {
+        if (!isEnabled()) {
+            return;
+        }
+        leases.clear();
+        release(() -> DoseLeaseDao.releaseAll(node), "the dose leases of " + node);
+    }
+
+    private void beat() {
+        long idleBefore = System.currentTimeMillis() - ttlSeconds * 1000L;
+        for (Lease lease : leases.values()) {
+            if (lease.lastUsed < idleBefore && leases.remove(lease.lease.getVaccine(), lease)) {
+                releaseNow(lease);
+            }
+        }
+        try {
+            DoseLeaseDao.renew(node, ttlSeconds);
+        } catch (SQLException | RuntimeException e) {
+            // the leases stay valid until they expire, the next beat will try again
+            System.err.println("Failed to renew dose leases: " + e);
+        }
+        release(DoseLeaseDao::releaseExpired, "expired dose leases");
+    }
+
+    // Leases a new block of the vaccine on a worker, unless one is being leased already. The caller is in the middle
+    // of a reservation and holds a connection, so it neither waits for the lease nor takes a second connection.
+    private void acquireLater(String vaccine, Lease exhausted) {
+        if (!acquiring.add(vaccine)) {
+            return;
+        }
+        if (exhausted != null && leases.remove(vaccine, exhausted)) {
+            releaseLater(exhausted);
+        }
+        AsyncDao.run(() -> {
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                DoseLease acquired = DoseLeaseDao.acquire(node, vaccine, size, ttlSeconds);
+                unitOfWork.commit();
+                if (acquired != null) {
+                    VaccineCatalog.getInstance().adjust(vaccine, -acquired.getGranted());
+                    leases.put(vaccine, new Lease(acquired));
+                }
+            } catch (SQLException | RuntimeException e) {
+                // reservations keep taking their doses from Vaccines, the next one tries again
+                System.err.println("Failed to lease doses of " + vaccine + ": " + e);
+            } finally {
+                acquiring.remove(vaccine);
+            }
+        });
+    }
+
+    // on a worker, as the caller is in the middle of a reservation
+    private void releaseLater(Lease lease) {
+        AsyncDao.run(() -> releaseNow(lease));
+    }
+
+    private void releaseNow(Lease lease) {
+        release(() -> DoseLeaseDao.release(lease.lease.getId()), "dose lease " + lease.lease.getId());
+    }
+
+    private interface Release {
+        Map<String, Integer> run() throws SQLException;
+    }
+
+    // releases in a transaction of its own and has the returned doses show up in the catalog once it commits
+    private static void release(Release release, String what) {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Map<String, Integer> returned = release.run();
+            UnitOfWork.afterCommit(() -> returned.forEach(VaccineCatalog.getInstance()::adjust));
+            unitOfWork.commit();
+        } catch (SQLException | RuntimeException e) {
+            // the doses come back once the lease expires and gets swept
+            System.err.println("Failed to release " + what + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package scheduler.service;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.CaregiverLoad;
+import scheduler.cache.SlotIndex;
+import scheduler.cache.VaccineCatalog;
+import scheduler.dao.AppointmentDao;
+import scheduler.dao.Reservation;
+import scheduler.db.UnitOfWork;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Books appointments in one round trip: the claim, the dose and the insert all happen in one server-side batch, and
+// lost races are retried with backoff. The caregiver is chosen up front by an AssignmentStrategy and claimed
+// in-process, so concurrent reservations go after different caregivers.
+public class ReservationEngine {
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 200;
+
+    // SQL Server error codes for a deadlock victim and a lock request timeout
+    private static final int DEADLOCK = 1205;
+    private static final int LOCK_TIMEOUT = 1222;
+
+    // in the order of the status codes of the reservation batch
+    public enum Status {
+        BOOKED,
+        NO_CAREGIVER,
+        NO_DOSES,
+        NO_CAREGIVER_AND_NO_DOSES,
+        CONFLICT
+    }
+
+    private final AssignmentStrategy strategy;
+    private final DoseLeaseManager doseLeases;
+    // "scope:username" of the caregivers being claimed by attempts of this process, held by a booking attempt until
+    // its transaction ends
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+    public ReservationEngine(AssignmentStrategy strategy, DoseLeaseManager doseLeases) {
+        this.strategy = strategy;
+        this.doseLeases = doseLeases;
+    }
+
+    public static class Result {
+        private final Status status;
+        private final int appointmentId;
+        private final String caregiver;
+        private final int slot;
+
+        private Result(Status status, int appointmentId, String caregiver) {
+            this(status, appointmentId, caregiver, -1);
+        }
+
+        private Result(Status status, int appointmentId, String caregiver, int slot) {
+            this.status = status;
+            this.appointmentId = appointmentId;
+            this.caregiver = caregiver;
+            this.slot = slot;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+
+        // the slot that was booked, or -1 for a whole day
+        public int getSlot() {
+            return slot;
+        }
+    }
+
+    // a single try at booking, run against the database, lease is null to take the dose from Vaccines and claims
+    // collects the in-process claims the try makes
+    private interface Attempt {
+        Reservation run(Integer lease, List<String> claims) throws SQLException;
+    }
+
+    // Reserves a dose of the vaccine with any caregiver available on the date. A failed attempt rolls back the
+    // current transaction, so this should be the only write of the unit of work it runs in.
+    public Result reserve(String patient, Date d, String vaccine) throws SQLException {
+        long epochDay = AvailabilityIndex.toEpochDay(d);
+        return reserve(vaccine, (lease, claims) -> {
+            String preferred = claimCaregiver(claims, Long.toString(epochDay), epochDay,
+                    AvailabilityIndex.getInstance().getCaregivers(epochDay));
+            return AppointmentDao.reserve(patient, d, vaccine, preferred, lease);
+        }, caregiver -> AvailabilityIndex.getInstance().remove(epochDay, caregiver));
+    }
+
+    // Reserves a dose of the vaccine on the date, for the whole day if a caregiver is available all day, or else in
+    // the earliest slot of the day that a caregiver has free.
+    public Result reserveAny(String patient, Date d, String vaccine) throws SQLException {
+        Result result = reserve(patient, d, vaccine);
+        if (result.getStatus() != Status.NO_CAREGIVER && result.getStatus() != Status.NO_CAREGIVER_AND_NO_DOSES) {
+            return result;
+        }
+        int slot = firstFreeSlot(AvailabilityIndex.toEpochDay(d));
+        return slot < 0 ? result : reserveSlot(patient, d, slot, vaccine);
+    }
+
+    // Reserves a dose of the vaccine in the given slot of the date, with any caregiver who has that slot free.
+    public Result reserveSlot(String patient, Date d, int slot, String vaccine) throws SQLException {
+        long epochDay = AvailabilityIndex.toEpochDay(d);
+        long[] mask = SlotIndex.mask(slot, slot + 1);
+        Result result = reserve(vaccine, (lease, claims) -> {
+            String preferred = claimCaregiver(claims, epochDay + "@" + slot, epochDay,
+                    SlotIndex.getInstance().getCaregivers(epochDay, slot));
+            return AppointmentDao.reserveSlot(patient, d, slot, mask, vaccine, preferred, lease);
+        }, caregiver -> SlotIndex.getInstance().remove(epochDay, caregiver, mask));
+        return new Result(result.getStatus(), result.getAppointmentId(), result.getCaregiver(), slot);
+    }
+
+    // the lowest slot set in the bitmap of any caregiver on the day, or -1 if the day has no free slot
+    private static int firstFreeSlot(long epochDay) {
+        int first = -1;
+        for (long[] slots : SlotIndex.getInstance().getSlots(epochDay).values()) {
+            int free = SlotIndex.nextFree(slots, 0);
+            if (free >= 0 && (first < 0 || free < first)) {
+                first = free;
+            }
+        }
+        return first;
+    }
+
+    // runs the attempt until it books or fails for good, then has the caches updated once the booking commits
+    private Result reserve(String vaccine, Attempt attempt, Consumer<String> releaseAvailability)
+            throws SQLException {
+        for (int n = 1; ; n++) {
+            Integer lease = doseLeases.take(vaccine);
+            List<String> claims = new ArrayList<>();
+            Result result;
+            try {
+                Reservation reservation = attempt.run(lease, claims);
+                result = new Result(Status.values()[reservation.getStatus()], reservation.getAppointmentId(),
+                        reservation.getCaregiver());
+            } catch (SQLException | RuntimeException e) {
+                if (lease != null) {
+                    doseLeases.giveBack(vaccine, lease);
+                }
+                if (!(e instanceof SQLException) || !isConflict((SQLException) e) || n >= MAX_ATTEMPTS) {
+                    claims.forEach(claimed::remove);
+                    throw e;
+                }
+                result = new Result(Status.CONFLICT, 0, null);
+                lease = null;
+            }
+            if (lease != null && result.getStatus() != Status.BOOKED) {
+                doseLeases.giveBack(vaccine, lease);
+                if (result.getStatus() == Status.NO_DOSES || result.getStatus() == Status.NO_CAREGIVER_AND_NO_DOSES) {
+                    // the lease expired and was released by another node
+                    doseLeases.lost(vaccine, lease);
+                }
+                if (result.getStatus() == Status.NO_DOSES) {
+                    // try again without it
+                    result = new Result(Status.CONFLICT, 0, null);
+                }
+            }
+            if (result.getStatus() != Status.BOOKED) {
+                // the next attempt claims afresh, so this one's claims would only keep other reservations away
+                claims.forEach(claimed::remove);
+            } else {
+                UnitOfWork.afterCompletion(() -> claims.forEach(claimed::remove));
+                String caregiver = result.getCaregiver();
+                boolean leased = lease != null;
+                UnitOfWork.afterCommit(() -> {
+                    releaseAvailability.accept(caregiver);
+                    if (!leased) {
+                        VaccineCatalog.getInstance().adjust(vaccine, -1);
+                    }
+                    CaregiverLoad.getInstance().adjust(caregiver, 1);
+                });
+                if (leased) {
+                    giveBackUnlessCommitted(vaccine, lease);
+                }
+            }
+            if (result.getStatus() != Status.CONFLICT || n >= MAX_ATTEMPTS) {
+                return result;
+            }
+            backoff(n);
+        }
+    }
+
+    // puts the leased dose of a booking back if its unit of work ends up rolled back
+    private void giveBackUnlessCommitted(String vaccine, int lease) {
+        AtomicBoolean committed = new AtomicBoolean();
+        UnitOfWork.afterCommit(() -> committed.set(true));
+        UnitOfWork.afterCompletion(() -> {
+            if (!committed.get()) {
+                doseLeases.giveBack(vaccine, lease);
+            }
+        });
+    }
+
+    // Picks one of the caregivers that no other attempt of this process is claiming in the same scope, a day or a
+    // slot of a day, and adds the claim to claims. Returns null when there is no such caregiver.
+    private String claimCaregiver(List<String> claims, String scope, long epochDay, Collection<String> caregivers) {
+        List<String> candidates = new ArrayList<>();
+        for (String caregiver : caregivers) {
+            if (!claimed.contains(scope + ":" + caregiver)) {
+                candidates.add(caregiver);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            String caregiver = strategy.choose(epochDay, candidates);
+            String claim = scope + ":" + caregiver;
+            if (claimed.add(claim)) {
+                claims.add(claim);
+                return caregiver;
+            }
+            candidates.remove(caregiver);
+        }
+        return null;
+    }
+
+    private static boolean isConflict(SQLException e) {
+        return e.getErrorCode() == DEADLOCK || e.getErrorCode() == LOCK_TIMEOUT || "40001".equals(e.getSQLState());
+    }
+
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying reservation", e);
+        }
+    }
+}
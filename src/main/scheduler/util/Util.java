@@ -2,11 +2,16 @@ package scheduler.util;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Util {
 
@@ -14,28 +19,70 @@ public class Util {
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // iteration count used for new hashes, can be raised through the HashIterations environment variable.
+    // Existing users keep the count stored with their hash until they log in again.
+    private static final int hashIterations = Math.max(HASH_STRENGTH, getIntEnv("HashIterations", HASH_STRENGTH));
+
+    // SecretKeyFactory is expensive to look up and not safe to share, so each hashing worker keeps its own
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+    // safe to share, and sessions on virtual threads would each seed a new one
+    private static final SecureRandom random = new SecureRandom();
+
+    // fixed pool of platform threads that all hashing runs on, so hashing load is capped at the number of cores
+    // no matter how many sessions log in at once, and the workers' key factories get reused
+    private static final ExecutorService hashPool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "password-hasher");
+                t.setDaemon(true);
+                return t;
+            });
+
+    public static int getHashIterations() {
+        return hashIterations;
+    }
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
         random.nextBytes(salt);
         return salt;
     }
 
     public static byte[] generateHash(String password, byte[] salt) {
+        return generateHash(password, salt, hashIterations);
+    }
+
+    public static byte[] generateHash(String password, byte[] salt, int iterations) {
         // Specify the hash parameters
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
 
-        // Generate the hash
-        SecretKeyFactory factory = null;
-        byte[] hash = null;
+        // Generate the hash on the hashing pool
+        Future<byte[]> hash = hashPool.submit(() -> {
+            try {
+                return factories.get().generateSecret(spec).getEncoded();
+            } catch (InvalidKeySpecException ex) {
+                throw new IllegalStateException();
+            }
+        });
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
-            throw new IllegalStateException();
+            return hash.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
         }
-        return hash;
+    }
+
+    // checks the password against a stored hash
+    public static boolean verifyHash(String password, byte[] salt, byte[] hash, int iterations) {
+        return MessageDigest.isEqual(trim(hash), trim(generateHash(password, salt, iterations)));
     }
 
     public static byte[] trim(byte[] bytes)
@@ -48,4 +95,32 @@ public class Util {
 
         return Arrays.copyOf(bytes, i + 1);
     }
+
+    // the integer in the environment variable, or the default if it is unset or not a number
+    public static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    // same as getIntEnv, for a long
+    public static long getLongEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReserveTest {
+
+    @Test
+    void reserveWithoutTimeTakesTheFirstFreeSlotOfADayWithOnlySlots() {
+        String caregiver = TestSession.name("slotcaregiver");
+        String patient = TestSession.name("slotpatient");
+        String vaccine = TestSession.name("slotvaccine");
+
+        TestSession caregiverSession = new TestSession();
+        caregiverSession.run("create_caregiver " + caregiver + " " + TestSession.PASSWORD);
+        caregiverSession.run("login_caregiver " + caregiver + " " + TestSession.PASSWORD);
+        assertTrue(caregiverSession.run("upload_slots 2031-03-04 10:30 11:00").contains("2 slot(s)"));
+        caregiverSession.run("add_doses " + vaccine + " 2");
+
+        TestSession patientSession = new TestSession();
+        patientSession.run("create_patient " + patient + " " + TestSession.PASSWORD);
+        patientSession.run("login_patient " + patient + " " + TestSession.PASSWORD);
+        String first = patientSession.run("reserve 2031-03-04 " + vaccine);
+        assertTrue(first.contains("Caregiver username " + caregiver + ", Time 10:30"), first);
+        String second = patientSession.run("reserve 2031-03-04 " + vaccine);
+        assertTrue(second.contains("Time 10:45"), second);
+        String third = patientSession.run("reserve 2031-03-04 " + vaccine);
+        assertTrue(third.contains("No caregiver is available!"), third);
+    }
+}
@@ -0,0 +1,40 @@
+package scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShowAppointmentsTest {
+
+    @Test
+    void pagingGoesOnAfterTheLastAppointmentOfAPageIsCancelled() {
+        String caregiver = TestSession.name("pagecaregiver");
+        String patient = TestSession.name("pagepatient");
+        String vaccine = TestSession.name("pagevaccine");
+
+        TestSession caregiverSession = new TestSession();
+        caregiverSession.run("create_caregiver " + caregiver + " " + TestSession.PASSWORD);
+        caregiverSession.run("login_caregiver " + caregiver + " " + TestSession.PASSWORD);
+        caregiverSession.run("upload_availability 2032-05-03 2032-05-05");
+        caregiverSession.run("add_doses " + vaccine + " 3");
+
+        TestSession patientSession = new TestSession();
+        patientSession.run("create_patient " + patient + " " + TestSession.PASSWORD);
+        patientSession.run("login_patient " + patient + " " + TestSession.PASSWORD);
+        for (String day : new String[] {"2032-05-03", "2032-05-04", "2032-05-05"}) {
+            patientSession.run("reserve " + day + " " + vaccine);
+        }
+
+        String first = patientSession.run("show_appointments --limit 1");
+        assertTrue(first.contains("2032-05-03 " + caregiver), first);
+        String next = first.substring(first.indexOf("show_appointments --after")).trim();
+        String cursor = next.split(" ")[2];
+        String anchor = cursor.substring(cursor.indexOf(':') + 1);
+        assertTrue(patientSession.run("cancel " + anchor).contains("cancelled"));
+
+        String second = patientSession.run(next);
+        assertTrue(second.contains("2032-05-04 " + caregiver), second);
+        assertFalse(second.contains("2032-05-03"), second);
+    }
+}
@@ -0,0 +1,54 @@
+package scheduler;
+
+import scheduler.cache.AvailabilityIndex;
+import scheduler.cache.SlotIndex;
+import scheduler.cache.VaccineCatalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A session on the local store that returns what each command printed. The journal is started afresh once per test
+// run and the caches are loaded from it, as on startup.
+class TestSession {
+
+    static final String PASSWORD = "Test#Pass1";
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    static {
+        try {
+            Files.deleteIfExists(Path.of(System.getenv("JournalFile")));
+            AvailabilityIndex.getInstance().reload();
+            SlotIndex.getInstance().reload();
+            VaccineCatalog.getInstance().reload();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final PrintStream stream = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+    private final Scheduler scheduler = new Scheduler(stream);
+
+    // a username no other test uses
+    static String name(String prefix) {
+        return prefix + names.incrementAndGet();
+    }
+
+    String run(String command) {
+        scheduler.execute(command);
+        stream.flush();
+        String printed = bytes.toString(StandardCharsets.UTF_8);
+        bytes.reset();
+        return printed;
+    }
+}